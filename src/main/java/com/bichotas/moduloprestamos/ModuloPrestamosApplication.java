@@ -5,11 +5,14 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestClient;
 
 @SpringBootApplication
 @EnableScheduling
+@EnableAsync
 public class ModuloPrestamosApplication {
 
     public static void main(String[] args) {
@@ -17,8 +20,9 @@ public class ModuloPrestamosApplication {
     }
 
     @Bean
-    public RestClient restClient() {
+    public RestClient restClient(ClientHttpRequestFactory apiGatewayRequestFactory) {
         return RestClient.builder()
+                .requestFactory(apiGatewayRequestFactory)
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .build();
     }
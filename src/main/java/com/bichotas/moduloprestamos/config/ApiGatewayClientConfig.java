@@ -0,0 +1,157 @@
+package com.bichotas.moduloprestamos.config;
+
+import java.time.Duration;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+
+/**
+ * Configures the HTTP transport and the fault tolerance policies used to call the API Gateway.
+ * <p>
+ * Connections are pooled and kept alive between calls, so the TCP and TLS handshakes with the
+ * gateway happen once per connection instead of once per request. Every call has explicit connect
+ * and read timeouts, runs inside a bulkhead that rejects calls once too many are in flight, and goes
+ * through a circuit breaker that opens when the gateway fails or answers slowly, so a degraded
+ * gateway cannot hold every servlet thread.
+ */
+@Configuration
+public class ApiGatewayClientConfig {
+
+    private static final String API_GATEWAY = "apiGateway";
+
+    /**
+     * Creates the connection pool used to call the API Gateway and publishes its gauges
+     * (leased, available and pending connections) under the {@code apiGateway} pool name.
+     *
+     * @param connectTimeout the maximum time to establish a connection
+     * @param readTimeout    the maximum time to wait for data on an open connection
+     * @param maxTotal       the maximum number of open connections
+     * @param maxPerRoute    the maximum number of open connections to the same host
+     * @param timeToLive     the maximum lifetime of a connection, after which it is not reused
+     * @return the {@link PoolingHttpClientConnectionManager}
+     */
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager apiGatewayConnectionManager(
+            MeterRegistry meterRegistry,
+            @Value("${apigateway.connect-timeout:2s}") Duration connectTimeout,
+            @Value("${apigateway.read-timeout:3s}") Duration readTimeout,
+            @Value("${apigateway.pool.max-total:50}") int maxTotal,
+            @Value("${apigateway.pool.max-per-route:20}") int maxPerRoute,
+            @Value("${apigateway.pool.time-to-live:5m}") Duration timeToLive) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, API_GATEWAY).bindTo(meterRegistry);
+        return connectionManager;
+    }
+
+    /**
+     * Creates the request factory used by the {@code RestClient}, backed by the pooled connection manager.
+     * <p>
+     * Connections are kept alive for the time announced by the gateway in its {@code Keep-Alive} header or,
+     * when it does not announce one, for the configured keep-alive. Connections idle for longer than the
+     * idle timeout are closed in the background so the pool does not hand out connections the gateway
+     * or a load balancer already dropped.
+     *
+     * @param apiGatewayConnectionManager the API Gateway connection pool
+     * @param keepAlive                   the keep-alive used when the gateway does not announce one
+     * @param idleTimeout                 the time after which idle connections are evicted
+     * @param connectionRequestTimeout    the maximum time to wait for a free connection from the pool
+     * @return the configured {@link ClientHttpRequestFactory}
+     */
+    @Bean
+    public ClientHttpRequestFactory apiGatewayRequestFactory(
+            PoolingHttpClientConnectionManager apiGatewayConnectionManager,
+            @Value("${apigateway.pool.keep-alive:30s}") Duration keepAlive,
+            @Value("${apigateway.pool.idle-timeout:30s}") Duration idleTimeout,
+            @Value("${apigateway.pool.connection-request-timeout:500ms}") Duration connectionRequestTimeout) {
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(apiGatewayConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionKeepAlive(TimeValue.of(keepAlive))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .build();
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectionRequestTimeout(connectionRequestTimeout);
+        return requestFactory;
+    }
+
+    /**
+     * Creates the circuit breaker that protects calls to the API Gateway.
+     * <p>
+     * The breaker opens when the failure rate or the slow call rate of the last calls exceeds its threshold,
+     * rejects every call while open, and after the configured wait lets a few probe calls through (half-open)
+     * to decide whether to close again.
+     *
+     * @return the API Gateway {@link CircuitBreaker}
+     */
+    @Bean
+    public CircuitBreaker apiGatewayCircuitBreaker(
+            MeterRegistry meterRegistry,
+            @Value("${apigateway.circuit-breaker.sliding-window-size:20}") int slidingWindowSize,
+            @Value("${apigateway.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+            @Value("${apigateway.circuit-breaker.slow-call-duration:2s}") Duration slowCallDuration,
+            @Value("${apigateway.circuit-breaker.wait-in-open-state:10s}") Duration waitInOpenState,
+            @Value("${apigateway.circuit-breaker.half-open-calls:3}") int halfOpenCalls) {
+        CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(Math.max(1, slidingWindowSize / 2))
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(slowCallDuration)
+                .slowCallRateThreshold(failureRateThreshold)
+                .waitDurationInOpenState(waitInOpenState)
+                .permittedNumberOfCallsInHalfOpenState(halfOpenCalls)
+                .build());
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry.circuitBreaker(API_GATEWAY);
+    }
+
+    /**
+     * Creates the bulkhead that limits concurrent calls to the API Gateway.
+     * Calls beyond the limit are rejected immediately instead of waiting for a permit.
+     *
+     * @return the API Gateway {@link Bulkhead}
+     */
+    @Bean
+    public Bulkhead apiGatewayBulkhead(
+            MeterRegistry meterRegistry,
+            @Value("${apigateway.bulkhead.max-concurrent-calls:20}") int maxConcurrentCalls) {
+        BulkheadRegistry registry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+        return registry.bulkhead(API_GATEWAY);
+    }
+}
@@ -1,8 +1,8 @@
 package com.bichotas.moduloprestamos.config;
 
 import java.io.IOException;
-import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -11,6 +11,7 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -21,10 +22,17 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import com.bichotas.moduloprestamos.service.ApiClient;
+import com.bichotas.moduloprestamos.service.JwtClaims;
+import com.bichotas.moduloprestamos.service.LocalTokenVerifier;
+import com.bichotas.moduloprestamos.service.TokenValidationCache;
 
 /**
  * JwtAuthenticationFilter is a filter that processes incoming HTTP requests to check for a valid JWT token.
  * If a valid token is found, it sets the authentication context with the user's role.
+ * <p>
+ * Tokens are validated by the API Gateway ({@code auth.validation.mode=remote}, the default) or locally
+ * against a cached public key set ({@code auth.validation.mode=local}). In local mode the API Gateway is
+ * only used as a fallback for tokens signed with an unknown key, if {@code auth.validation.remote-fallback} is set.
  */
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
@@ -32,12 +40,24 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private static final Logger LOGGER = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
     private static final String ROLE_PREFIX = "ROLE_";
     private static final String BEARER_PREFIX = "Bearer ";
-    private static final String ROLE_CLAIM = "\"role\":";
+    private static final String LOCAL_VALIDATION = "local";
 
     private final ApiClient apiClient;
+    private final LocalTokenVerifier localTokenVerifier;
+    private final TokenValidationCache tokenValidationCache;
+    private final String validationMode;
+    private final boolean remoteFallback;
 
-    public JwtAuthenticationFilter(ApiClient apiClient) {
+    public JwtAuthenticationFilter(ApiClient apiClient,
+                                   LocalTokenVerifier localTokenVerifier,
+                                   TokenValidationCache tokenValidationCache,
+                                   @Value("${auth.validation.mode:remote}") String validationMode,
+                                   @Value("${auth.validation.remote-fallback:true}") boolean remoteFallback) {
         this.apiClient = apiClient;
+        this.localTokenVerifier = localTokenVerifier;
+        this.tokenValidationCache = tokenValidationCache;
+        this.validationMode = validationMode;
+        this.remoteFallback = remoteFallback;
     }
 
     /**
@@ -55,7 +75,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
         try {
             String jwt = getJwtFromRequest(request);
-            if (StringUtils.hasText(jwt) && apiClient.validateToken(jwt)) {
+            if (StringUtils.hasText(jwt) && isTokenValid(jwt)) {
                 String role = extractRoleFromJwt(jwt);
                 setAuthenticationContext(request, role);
             }
@@ -65,6 +85,23 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Validates the token according to the configured validation mode.
+     *
+     * @param jwt the JWT token to validate
+     * @return true if the token is valid, false otherwise
+     */
+    private boolean isTokenValid(String jwt) {
+        if (!LOCAL_VALIDATION.equalsIgnoreCase(validationMode)) {
+            return apiClient.validateToken(jwt);
+        }
+        return switch (localTokenVerifier.verify(jwt)) {
+            case VALID -> true;
+            case UNKNOWN_KEY -> remoteFallback && apiClient.validateToken(jwt);
+            case INVALID -> false;
+        };
+    }
+
     /**
      * Extracts the JWT token from the Authorization header of the given HTTP request.
      *
@@ -80,19 +117,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Extracts the role from the JWT payload.
+     * Extracts the role from the JWT payload, reusing the claims memoized when the token was validated.
      *
      * @param token the JWT token to decode
      * @return the role extracted from the token payload in uppercase
      */
     private String extractRoleFromJwt(String token) {
         try {
-            String[] splitToken = token.split("\\.");
-            String payload = new String(Base64.getUrlDecoder().decode(splitToken[1]));
-            if (payload.contains(ROLE_CLAIM)) {
-                int startIndex = payload.indexOf(ROLE_CLAIM) + ROLE_CLAIM.length();
-                int endIndex = payload.indexOf('"', startIndex + 1);
-                return payload.substring(startIndex + 1, endIndex).toUpperCase();
+            JwtClaims claims = tokenValidationCache.claims(token);
+            if (claims.role() != null) {
+                return claims.role().toUpperCase(Locale.ROOT);
             }
             throw new IllegalArgumentException("Role not found in token payload");
         } catch (Exception ex) {
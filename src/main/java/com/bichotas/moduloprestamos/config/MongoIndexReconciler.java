@@ -0,0 +1,151 @@
+package com.bichotas.moduloprestamos.config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+
+/**
+ * Reconciles the indexes declared on the {@code @Document} entities ({@code @Indexed}, {@code @CompoundIndex})
+ * with the indexes that exist in MongoDB once the application is ready.
+ * <p>
+ * Declared indexes that are missing are created. Existing indexes that are not declared, and indexes that
+ * have not been used since the server started counting ({@code $indexStats}), are reported so they can be
+ * reviewed and dropped by hand; nothing is ever dropped automatically.
+ */
+@Component
+@ConditionalOnProperty(name = "mongodb.indexes.reconcile", havingValue = "true", matchIfMissing = true)
+public class MongoIndexReconciler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoIndexReconciler.class);
+    private static final String ID_INDEX = "_id_";
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+
+    public MongoIndexReconciler(MongoTemplate mongoTemplate, MongoMappingContext mappingContext) {
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
+    }
+
+    /**
+     * Result of reconciling the indexes of one collection.
+     *
+     * @param collection the collection name
+     * @param created    the declared indexes that were missing and have been created
+     * @param undeclared the indexes that exist in the collection but are not declared on the entity
+     * @param unused     the existing indexes with no recorded use
+     */
+    public record IndexReport(String collection, List<String> created, List<String> undeclared, List<String> unused) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            reconcile();
+        } catch (DataAccessException | MongoException e) {
+            LOGGER.error("Could not reconcile MongoDB indexes: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reconciles the indexes of every {@code @Document} entity known to the mapping context.
+     *
+     * @return one report per collection
+     */
+    public List<IndexReport> reconcile() {
+        IndexResolver indexResolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        List<IndexReport> reports = new ArrayList<>();
+        for (MongoPersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+            if (entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                reports.add(reconcile(entity, indexResolver));
+            }
+        }
+        return reports;
+    }
+
+    private IndexReport reconcile(MongoPersistentEntity<?> entity, IndexResolver indexResolver) {
+        String collection = entity.getCollection();
+        IndexOperations indexOperations = mongoTemplate.indexOps(entity.getType());
+        Set<String> existing = indexOperations.getIndexInfo().stream()
+                .map(IndexInfo::getName)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        Set<String> declared = new LinkedHashSet<>();
+        List<String> created = new ArrayList<>();
+        for (IndexDefinition definition : indexResolver.resolveIndexFor(entity.getTypeInformation())) {
+            String name = definition.getIndexOptions().getString("name");
+            declared.add(name);
+            try {
+                indexOperations.ensureIndex(definition);
+                if (!existing.contains(name)) {
+                    created.add(name);
+                    LOGGER.info("Created missing index {} on {}", name, collection);
+                }
+            } catch (DataAccessException e) {
+                LOGGER.error("Index {} on {} conflicts with the existing one and was not updated: {}",
+                        name, collection, e.getMessage());
+            }
+        }
+
+        List<String> undeclared = existing.stream()
+                .filter(name -> !ID_INDEX.equals(name) && !declared.contains(name))
+                .toList();
+        undeclared.forEach(name -> LOGGER.warn("Index {} on {} is not declared on {}",
+                name, collection, entity.getType().getSimpleName()));
+
+        List<String> unused = unusedIndexes(collection, existing);
+        return new IndexReport(collection, created, undeclared, unused);
+    }
+
+    /**
+     * Returns the existing indexes, other than {@code _id_}, that {@code $indexStats} reports with no operations.
+     * The counters restart with the server, so an index is only reported, never dropped.
+     */
+    private List<String> unusedIndexes(String collection, Set<String> existing) {
+        List<Document> stats;
+        try {
+            stats = mongoTemplate.getCollection(collection)
+                    .aggregate(List.of(new Document("$indexStats", new Document())))
+                    .into(new ArrayList<>());
+        } catch (MongoException e) {
+            LOGGER.debug("Index usage of {} is not available: {}", collection, e.getMessage());
+            return List.of();
+        }
+        List<String> unused = new ArrayList<>();
+        for (Document stat : stats) {
+            String name = stat.getString("name");
+            Document accesses = stat.get("accesses", Document.class);
+            if (ID_INDEX.equals(name) || !existing.contains(name) || accesses == null) {
+                continue;
+            }
+            Number operations = accesses.get("ops", Number.class);
+            if (operations != null && operations.longValue() == 0) {
+                unused.add(name);
+                LOGGER.warn("Index {} on {} has not been used since {}", name, collection, accesses.get("since", Date.class));
+            }
+        }
+        return unused;
+    }
+}
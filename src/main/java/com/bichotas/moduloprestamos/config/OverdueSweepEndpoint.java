@@ -0,0 +1,29 @@
+package com.bichotas.moduloprestamos.config;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import com.bichotas.moduloprestamos.entity.dto.SweepProgressDTO;
+import com.bichotas.moduloprestamos.service.OverdueSweepService;
+
+/**
+ * Actuator endpoint ({@code /actuator/overduesweep}) that reports the progress of the last run of the overdue
+ * sweep: chunks done, loans expired, resumes and elapsed time. The progress is read from the checkpoint, so any
+ * instance reports the run, wherever it executes.
+ */
+@Component
+@Endpoint(id = "overduesweep")
+public class OverdueSweepEndpoint {
+
+    private final OverdueSweepService overdueSweepService;
+
+    public OverdueSweepEndpoint(OverdueSweepService overdueSweepService) {
+        this.overdueSweepService = overdueSweepService;
+    }
+
+    @ReadOperation
+    public SweepProgressDTO progress() {
+        return overdueSweepService.progress();
+    }
+}
@@ -1,19 +1,32 @@
 package com.bichotas.moduloprestamos.controller;
 
 import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.dto.BulkResultDTO;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionLoteDTO;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionResultDTO;
 import com.bichotas.moduloprestamos.exception.PrestamosException;
 import com.bichotas.moduloprestamos.service.PrestamoService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDate;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.stream.Stream;
 
 
 @RestController
@@ -24,9 +37,14 @@ import java.util.NoSuchElementException;
 )
 public class PrestamoController {
 
+    private static final int EXPORT_FLUSH_INTERVAL = 500;
+
     @Autowired
     private PrestamoService prestamoService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * create a new prestamo with the details provided
      *
@@ -140,8 +158,80 @@ public class PrestamoController {
     }
 
     /**
-     * get all prestamos in the system
+     * create a batch of prestamos, returning the result of each one
+     *
+     * @param prestamos
+     * @return
+     */
+    @PostMapping("/bulk")
+    @Operation(
+            method = "POST",
+            summary = "Crear préstamos en lote",
+            description = "Crea un lote de préstamos (hasta 5000) y devuelve el resultado de cada uno según su posición en el lote. " +
+                    "Un préstamo rechazado por validación o por un préstamo activo del estudiante o del libro no impide crear los demás.",
+            tags = {"Prestamos"},
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Préstamos a crear",
+                    required = true,
+                    content = @io.swagger.v3.oas.annotations.media.Content(
+                            mediaType = "application/json",
+                            array = @io.swagger.v3.oas.annotations.media.ArraySchema(
+                                    schema = @io.swagger.v3.oas.annotations.media.Schema(implementation = Prestamo.class)
+                            )
+                    )
+            ),
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Lote procesado, con el resultado de cada préstamo",
+                            content = @io.swagger.v3.oas.annotations.media.Content(
+                                    mediaType = "application/json",
+                                    examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+                                            name = "Respuesta exitosa",
+                                            value = """
+                                                    {
+                                                        "resultados": [
+                                                            { "index": 0, "id": "64759fa2edbdee1a2c7b4e1f", "status": "CREADO" },
+                                                            { "index": 1, "status": "RECHAZADO", "error": "El estudiante ya tiene un préstamo activo" }
+                                                        ]
+                                                    }
+                                                    """
+                                    )
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = "Lote vacío o demasiado grande",
+                            content = @io.swagger.v3.oas.annotations.media.Content(
+                                    mediaType = "application/json",
+                                    examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+                                            name = "Error de validación",
+                                            value = """
+                                                    {
+                                                        "error": "El lote no puede tener más de 5000 préstamos"
+                                                    }
+                                                    """
+                                    )
+                            )
+                    )
+            }
+    )
+    public ResponseEntity<?> createPrestamos(@RequestBody List<Prestamo> prestamos) {
+        try {
+            List<BulkResultDTO> resultados = prestamoService.createPrestamos(prestamos);
+            return ResponseEntity.ok(Collections.singletonMap("resultados", resultados));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * get all prestamos in the system, or a page of them when limit or cursor are given
      *
+     * @param estado
+     * @param limit
+     * @param cursor
+     * @param fields
      * @return
      */
     @GetMapping
@@ -156,6 +246,25 @@ public class PrestamoController {
                             description = "Estado de los préstamos a obtener. Puede ser 'Prestado', 'Vencido', o 'Devuelto'.",
                             required = false,
                             schema = @io.swagger.v3.oas.annotations.media.Schema(implementation = String.class)
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "limit",
+                            description = "Cantidad máxima de préstamos por página (máximo 100). Si se envía limit o cursor la respuesta es paginada e incluye nextCursor.",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "integer")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "cursor",
+                            description = "Valor de nextCursor de la página anterior para continuar la paginación.",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "fields",
+                            description = "Campos a devolver separados por coma, por ejemplo 'id,estado,fechaDevolucion'. " +
+                                    "Por defecto se devuelve un resumen sin observaciones ni historialEstado; el préstamo completo se obtiene con GET /{id}.",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
                     )
             },
             responses = {
@@ -232,14 +341,93 @@ public class PrestamoController {
                     )
             }
     )
-    public ResponseEntity<?> getPrestamos(@RequestParam(value = "estado", required = false) String estado) {
+    public ResponseEntity<?> getPrestamos(@RequestParam(value = "estado", required = false) String estado,
+                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                          @RequestParam(value = "cursor", required = false) String cursor,
+                                          @RequestParam(value = "fields", required = false) String fields) {
         try {
-            return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("prestamos", prestamoService.getPrestamos(estado)));
-        } catch (PrestamosException.PrestamosExceptionStateError e) {
+            if (limit == null && cursor == null) {
+                return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("prestamos", prestamoService.getPrestamos(estado, fields)));
+            }
+            return ResponseEntity.status(HttpStatus.OK).body(prestamoService.getPrestamosPage(estado, limit, cursor, fields));
+        } catch (PrestamosException.PrestamosExceptionStateError | IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
         }
     }
 
+    /**
+     * export the prestamos as newline-delimited JSON, streamed from a MongoDB cursor
+     *
+     * @param estado
+     * @param desde
+     * @param hasta
+     * @return
+     */
+    @GetMapping("/export")
+    @Operation(
+            method = "GET",
+            summary = "Exportar préstamos en NDJSON",
+            description = "Exporta los préstamos como JSON delimitado por saltos de línea (un préstamo por línea). "
+                    + "Los préstamos se leen de un cursor de MongoDB y se escriben a medida que llegan, sin cargarlos todos en memoria.",
+            tags = {"Prestamos"},
+            parameters = {
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "estado",
+                            description = "Estado de los préstamos a exportar. Puede ser 'Prestado', 'Vencido', o 'Devuelto'.",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "desde",
+                            description = "Fecha de préstamo inicial (inclusive), en formato yyyy-MM-dd",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string", format = "date")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "hasta",
+                            description = "Fecha de préstamo final (inclusive), en formato yyyy-MM-dd",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string", format = "date")
+                    )
+            },
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Préstamos exportados correctamente"
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = "Estado o rango de fechas no válido"
+                    )
+            }
+    )
+    public ResponseEntity<?> exportPrestamos(@RequestParam(value = "estado", required = false) String estado,
+                                             @RequestParam(value = "desde", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                             @RequestParam(value = "hasta", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+        Stream<Prestamo> prestamos;
+        try {
+            prestamos = prestamoService.streamPrestamos(estado, desde, hasta);
+        } catch (PrestamosException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.APPLICATION_JSON)
+                    .body(Collections.singletonMap("error", e.getMessage()));
+        }
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = outputStream -> {
+            try (prestamos; JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                int written = 0;
+                for (Prestamo prestamo : (Iterable<Prestamo>) prestamos::iterator) {
+                    writer.writeValue(generator, prestamo);
+                    generator.writeRaw('\n');
+                    if (++written % EXPORT_FLUSH_INTERVAL == 0) {
+                        generator.flush();
+                    }
+                }
+            }
+        };
+        return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     /**
      * Get the details of a specific prestamos using its ID
      *
@@ -279,9 +467,12 @@ public class PrestamoController {
     }
 
     /**
-     * Get all prestamos associated with a specific book using its ISBN
+     * Get the prestamos associated with a specific book using its ISBN, optionally paged
      *
      * @param isbn
+     * @param page
+     * @param size
+     * @param fields
      * @return
      */
     @GetMapping("/por-libro/{isbn}")
@@ -295,12 +486,35 @@ public class PrestamoController {
                             description = "ISBN del libro",
                             required = true,
                             schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "page",
+                            description = "Página a obtener, empezando en 0. Si no se envían page ni size se obtienen todos los préstamos",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "integer")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "size",
+                            description = "Cantidad de préstamos por página (máximo 100)",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "integer")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "fields",
+                            description = "Campos a devolver separados por coma, por ejemplo 'id,estado,fechaDevolucion'. " +
+                                    "Por defecto se devuelve un resumen sin observaciones ni historialEstado; el préstamo completo se obtiene con GET /{id}.",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
                     )
             },
             responses = {
                     @io.swagger.v3.oas.annotations.responses.ApiResponse(
                             responseCode = "200",
-                            description = "Lista de préstamos encontrada correctamente"
+                            description = "Lista de préstamos encontrada correctamente, del más reciente al más antiguo"
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = "Página, tamaño de página o campos no válidos"
                     ),
                     @io.swagger.v3.oas.annotations.responses.ApiResponse(
                             responseCode = "500",
@@ -308,14 +522,22 @@ public class PrestamoController {
                     )
             }
     )
-    public ResponseEntity<?> getPrestamosByIsbn(@PathVariable String isbn) {
-        return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("prestamos", prestamoService.getPrestamosByIsbn(isbn)));
+    public ResponseEntity<?> getPrestamosByIsbn(@PathVariable String isbn,
+                                                @RequestParam(value = "page", required = false) Integer page,
+                                                @RequestParam(value = "size", required = false) Integer size,
+                                                @RequestParam(value = "fields", required = false) String fields) {
+        try {
+            return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("prestamos", prestamoService.getPrestamosByIsbn(isbn, page, size, fields)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
+        }
     }
 
     /**
      * get prestamos by id estudiante
      *
      * @param id
+     * @param fields
      * @return
      */
     @GetMapping("/por-estudiante/{id}")
@@ -329,6 +551,13 @@ public class PrestamoController {
                             description = "ID del estudiante",
                             required = true,
                             schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "fields",
+                            description = "Campos a devolver separados por coma, por ejemplo 'id,estado,fechaDevolucion'. " +
+                                    "Por defecto se devuelve un resumen sin observaciones ni historialEstado; el préstamo completo se obtiene con GET /{id}.",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
                     )
             },
             responses = {
@@ -336,14 +565,23 @@ public class PrestamoController {
                             responseCode = "200",
                             description = "Lista de préstamos del estudiante encontrada correctamente"
                     ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = "Campos no válidos"
+                    ),
                     @io.swagger.v3.oas.annotations.responses.ApiResponse(
                             responseCode = "500",
                             description = "Error interno del servidor"
                     )
             }
     )
-    public ResponseEntity<?> getPrestamosByEstudiante(@PathVariable String id) {
-        return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("prestamos", prestamoService.getPrestamosByIdEstudiante(id)));
+    public ResponseEntity<?> getPrestamosByEstudiante(@PathVariable String id,
+                                                      @RequestParam(value = "fields", required = false) String fields) {
+        try {
+            return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("prestamos", prestamoService.getPrestamosByIdEstudiante(id, fields)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
+        }
     }
 
     /**
@@ -395,6 +633,7 @@ public class PrestamoController {
      *
      * @param id
      * @param updates
+     * @param version
      * @return
      */
     @PatchMapping("/{id}/update")
@@ -408,6 +647,12 @@ public class PrestamoController {
                             description = "ID del préstamo a actualizar",
                             required = true,
                             schema = @io.swagger.v3.oas.annotations.media.Schema(type = "string")
+                    ),
+                    @io.swagger.v3.oas.annotations.Parameter(
+                            name = "version",
+                            description = "Versión del préstamo leída por el cliente. Si se envía, el préstamo solo se actualiza si sigue en esa versión",
+                            required = false,
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(type = "integer")
                     )
             },
             responses = {
@@ -423,25 +668,112 @@ public class PrestamoController {
                             responseCode = "404",
                             description = "Préstamo no encontrado"
                     ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "409",
+                            description = "El préstamo fue modificado por otra petición"
+                    ),
                     @io.swagger.v3.oas.annotations.responses.ApiResponse(
                             responseCode = "500",
                             description = "Error interno del servidor"
                     )
             }
     )
-    public ResponseEntity<?> updatePrestamo(@PathVariable String id, @RequestBody Map<String, Object> updates) {
+    public ResponseEntity<?> updatePrestamo(@PathVariable String id, @RequestBody Map<String, Object> updates,
+                                            @RequestParam(value = "version", required = false) Long version) {
         try {
-            prestamoService.updatePrestamo(id, updates);
+            prestamoService.updatePrestamo(id, updates, version);
             return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("message", "Prestamo actualizado correctamente"));
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | PrestamosException.PrestamosExceptionEstudianteHasPrestamo
+                 | PrestamosException.PrestamosExceptionBookIsAvailable e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
-        } catch (NoSuchElementException e) {
+        } catch (PrestamosException.PrestamosExceptionVersionConflict e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", e.getMessage()));
+        } catch (NoSuchElementException | PrestamosException.PrestamosExceptionPrestamoIdNotFound e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.singletonMap("error", e.getMessage()));
         }
     }
 
+    /**
+     * return a batch of prestamos by their ids or by the ids of the books, returning the result of each one
+     *
+     * @param devolucion
+     * @return
+     */
+    @PatchMapping("/devolver")
+    @Operation(
+            method = "PATCH",
+            summary = "Devolver préstamos en lote",
+            description = "Devuelve en una sola operación los préstamos prestados o vencidos indicados por su id o por el id del libro (hasta 500), " +
+                    "y devuelve el resultado de cada uno. Las notificaciones de devolución se envían de forma asíncrona.",
+            tags = {"Prestamos"},
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Préstamos o libros a devolver y estado del libro al devolverlo",
+                    required = true,
+                    content = @io.swagger.v3.oas.annotations.media.Content(
+                            mediaType = "application/json",
+                            schema = @io.swagger.v3.oas.annotations.media.Schema(implementation = DevolucionLoteDTO.class),
+                            examples = {
+                                    @io.swagger.v3.oas.annotations.media.ExampleObject(
+                                            name = "Ejemplo de devolución en lote",
+                                            value = """
+                                                    {
+                                                        "prestamoIds": ["64759fa2edbdee1a2c7b4e1f"],
+                                                        "libroIds": ["978-3-16-148410-0"],
+                                                        "historialEstado": "Buen estado"
+                                                    }
+                                                    """
+                                    )
+                            }
+                    )
+            ),
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Lote procesado, con el resultado de cada préstamo",
+                            content = @io.swagger.v3.oas.annotations.media.Content(
+                                    mediaType = "application/json",
+                                    examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+                                            name = "Respuesta exitosa",
+                                            value = """
+                                                    {
+                                                        "resultados": [
+                                                            { "prestamoId": "64759fa2edbdee1a2c7b4e1f", "idLibro": "5f5b3b3b1f1b3b5f5b3b3b1f", "status": "DEVUELTO" },
+                                                            { "idLibro": "978-3-16-148410-0", "status": "RECHAZADO", "error": "El libro con el ISBN 978-3-16-148410-0 no tiene un préstamo activo" }
+                                                        ]
+                                                    }
+                                                    """
+                                    )
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = "Lote vacío o demasiado grande",
+                            content = @io.swagger.v3.oas.annotations.media.Content(
+                                    mediaType = "application/json",
+                                    examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+                                            name = "Error de validación",
+                                            value = """
+                                                    {
+                                                        "error": "Debe indicar al menos un préstamo o un libro para devolver"
+                                                    }
+                                                    """
+                                    )
+                            )
+                    )
+            }
+    )
+    public ResponseEntity<?> devolverPrestamos(@RequestBody DevolucionLoteDTO devolucion) {
+        try {
+            List<DevolucionResultDTO> resultados = prestamoService.devolverPrestamos(
+                    devolucion.getPrestamoIds(), devolucion.getLibroIds(), devolucion.getHistorialEstado());
+            return ResponseEntity.ok(Collections.singletonMap("resultados", resultados));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
     @PatchMapping("/{prestamoId}/devolver")
     public ResponseEntity<?> devolverPrestamo(@PathVariable String prestamoId, @RequestParam(value = "estado", required = false) String estado) {
 
@@ -450,7 +782,9 @@ public class PrestamoController {
             return ResponseEntity.status(HttpStatus.OK).body(Collections.singletonMap("message", "Prestamo devuelto correctamente"));
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
-        } catch (NoSuchElementException e) {
+        } catch (PrestamosException.PrestamosExceptionStateError e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", e.getMessage()));
+        } catch (NoSuchElementException | PrestamosException.PrestamosExceptionPrestamoIdNotFound e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.singletonMap("error", e.getMessage()));
@@ -1,16 +1,22 @@
 package com.bichotas.moduloprestamos.entity;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.*;
 import lombok.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * This class is in charge of representing the prestamo entity.
+ * The indexes declared here are created at startup by {@code MongoIndexReconciler}.
  */
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,7 +25,34 @@ import java.time.LocalDateTime;
 @ToString
 @Builder
 @Document(collection = "prestamo")
+@CompoundIndexes({
+        @CompoundIndex(name = "estado_fechaDevolucion", def = "{'estado': 1, 'fechaDevolucion': 1}"),
+        @CompoundIndex(name = "idEstudiante_estado", def = "{'idEstudiante': 1, 'estado': 1}"),
+        @CompoundIndex(name = "idLibro_fechaPrestamo", def = "{'idLibro': 1, 'fechaPrestamo': -1}"),
+        @CompoundIndex(name = "estado_id", def = "{'estado': 1, '_id': 1}"),
+        @CompoundIndex(name = Prestamo.ESTUDIANTE_PRESTAMO_ACTIVO_INDEX, def = "{'idEstudiante': 1}",
+                unique = true, partialFilter = "{'estado': 'Prestado'}"),
+        @CompoundIndex(name = Prestamo.LIBRO_PRESTAMO_ACTIVO_INDEX, def = "{'idLibro': 1}",
+                unique = true, partialFilter = "{'estado': 'Prestado'}")
+})
 public class Prestamo {
+    /**
+     * Unique index that allows a single loan in state "Prestado" per student.
+     */
+    public static final String ESTUDIANTE_PRESTAMO_ACTIVO_INDEX = "idEstudiante_prestamoActivo";
+
+    /**
+     * Unique index that allows a single loan in state "Prestado" per book.
+     */
+    public static final String LIBRO_PRESTAMO_ACTIVO_INDEX = "idLibro_prestamoActivo";
+
+    /**
+     * Properties returned by the list endpoints when no {@code fields} are requested. The long free text
+     * properties are only returned by the endpoint of a single prestamo.
+     */
+    public static final List<String> SUMMARY_FIELDS = List.of(
+            "id", "idEstudiante", "idLibro", "fechaPrestamo", "fechaDevolucion", "estado", "version");
+
     @Id
     private String id;
 
@@ -48,5 +81,13 @@ public class Prestamo {
 
     @NotNull(message = "El usuario que creó el préstamo no puede ser nulo")
     private String creadoBy;
+
+    /**
+     * Version used for optimistic locking. It is only returned to clients, which send it back as the
+     * {@code version} parameter of an update; a version in a request body is ignored.
+     */
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
 }
 
@@ -0,0 +1,34 @@
+package com.bichotas.moduloprestamos.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Lease of a scheduled job, held by one instance until {@link #bloqueadoHasta}. The {@link #token} is incremented
+ * on every acquisition, so it orders the holders of the lock and can fence off the writes of a stale one.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+@Builder
+@Document(collection = "scheduler_lock")
+public class SchedulerLock {
+    /**
+     * Name of the job.
+     */
+    @Id
+    private String id;
+
+    private Instant bloqueadoHasta;
+
+    private Instant bloqueadoEn;
+
+    private String bloqueadoPor;
+
+    private long token;
+}
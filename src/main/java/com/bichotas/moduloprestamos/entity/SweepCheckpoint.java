@@ -0,0 +1,73 @@
+package com.bichotas.moduloprestamos.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Progress of one partition of a sweep over the prestamos, saved after every chunk so that a run interrupted by a
+ * crash or a deploy can be resumed by the same run. There is a document per partition, overwritten by each run.
+ * It is only written with {@code SweepCheckpointRepository#saveFenced}, so a run that lost its lock cannot
+ * overwrite the progress of the run that took it over.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+@Builder
+@Document(collection = "sweep_checkpoint")
+public class SweepCheckpoint {
+    public static final String EN_CURSO = "EN_CURSO";
+    public static final String COMPLETADO = "COMPLETADO";
+
+    /**
+     * Name of the sweep followed by the partition number.
+     */
+    @Id
+    private String id;
+
+    private Integer particion;
+
+    /**
+     * Number of partitions of the run; a checkpoint written with a different number is not resumed.
+     */
+    private int particiones;
+
+    /**
+     * Day the run belongs to.
+     */
+    private LocalDate fecha;
+
+    /**
+     * Key of the scheduled run within the day; each run of the same day scans the overdue range again.
+     */
+    private String ejecucion;
+
+    /**
+     * First return date that is not overdue for this run.
+     */
+    private LocalDate corte;
+
+    private String estado;
+
+    private int lotes;
+
+    private long vencidos;
+
+    private int reanudaciones;
+
+    private LocalDateTime iniciado;
+
+    private LocalDateTime actualizado;
+
+    private LocalDateTime finalizado;
+
+    /**
+     * Fencing token of the lock held by the run that wrote the checkpoint last.
+     */
+    private Long token;
+}
@@ -0,0 +1,23 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+/**
+ * Result of one item of a bulk loan creation, identified by its position in the request.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkResultDTO {
+    public static final String CREADO = "CREADO";
+    public static final String RECHAZADO = "RECHAZADO";
+
+    private int index;
+    private String id;
+    private String status;
+    private String error;
+}
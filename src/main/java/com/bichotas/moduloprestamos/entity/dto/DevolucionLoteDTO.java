@@ -0,0 +1,19 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Batch of loans to return, identified by loan ID, by book ID or both.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class DevolucionLoteDTO {
+    private List<String> prestamoIds;
+    private List<String> libroIds;
+    private String historialEstado;
+}
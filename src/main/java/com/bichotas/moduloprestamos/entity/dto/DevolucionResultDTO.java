@@ -0,0 +1,23 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+/**
+ * Result of returning one loan of a batch return.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DevolucionResultDTO {
+    public static final String DEVUELTO = "DEVUELTO";
+    public static final String RECHAZADO = "RECHAZADO";
+
+    private String prestamoId;
+    private String idLibro;
+    private String status;
+    private String error;
+}
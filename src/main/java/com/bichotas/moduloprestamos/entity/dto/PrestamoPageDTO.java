@@ -0,0 +1,18 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * A page of loans read with keyset pagination. {@code nextCursor} is null on the last page.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PrestamoPageDTO {
+    private List<PrestamoResumenDTO> prestamos;
+    private String nextCursor;
+}
@@ -0,0 +1,49 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * A loan returned by the list endpoints, with only the properties read from MongoDB
+ * (see {@link Prestamo#SUMMARY_FIELDS}). Properties that were not read are left out of the JSON instead of being
+ * sent as null.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PrestamoResumenDTO {
+    private String id;
+    private String idEstudiante;
+    private String idLibro;
+    private LocalDate fechaPrestamo;
+    private LocalDate fechaDevolucion;
+    private String estado;
+    private String observaciones;
+    private LocalDateTime fechaCreacion;
+    private String historialEstado;
+    private String creadoBy;
+    private Long version;
+
+    public static PrestamoResumenDTO of(Prestamo prestamo) {
+        return PrestamoResumenDTO.builder()
+                .id(prestamo.getId())
+                .idEstudiante(prestamo.getIdEstudiante())
+                .idLibro(prestamo.getIdLibro())
+                .fechaPrestamo(prestamo.getFechaPrestamo())
+                .fechaDevolucion(prestamo.getFechaDevolucion())
+                .estado(prestamo.getEstado())
+                .observaciones(prestamo.getObservaciones())
+                .fechaCreacion(prestamo.getFechaCreacion())
+                .historialEstado(prestamo.getHistorialEstado())
+                .creadoBy(prestamo.getCreadoBy())
+                .version(prestamo.getVersion())
+                .build();
+    }
+}
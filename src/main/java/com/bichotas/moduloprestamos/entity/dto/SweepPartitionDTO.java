@@ -0,0 +1,19 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import lombok.*;
+
+/**
+ * Progress of one partition of the last run of a sweep.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SweepPartitionDTO {
+    private Integer particion;
+    private String estado;
+    private int lotes;
+    private long vencidos;
+    private long duracionMs;
+}
@@ -0,0 +1,36 @@
+package com.bichotas.moduloprestamos.entity.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Progress of the last run of a sweep, as reported by the {@code overduesweep} actuator endpoint. The skews are the
+ * largest value of a partition divided by the mean, 1 when the partitions are even.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SweepProgressDTO {
+    private String sweep;
+    private LocalDate fecha;
+    private String ejecucion;
+    private String estado;
+    private int lotes;
+    private long vencidos;
+    private int reanudaciones;
+    private LocalDateTime iniciado;
+    private LocalDateTime actualizado;
+    private LocalDateTime finalizado;
+    private long duracionMs;
+    private boolean enEjecucion;
+    private List<SweepPartitionDTO> particiones;
+    private Double sesgoVencidos;
+    private Double sesgoDuracion;
+}
@@ -102,4 +102,19 @@ public class PrestamosException extends RuntimeException {
             super(message);
         }
     }
+
+    /**
+     * Represents an exception indicating that a prestamo was modified by another request
+     * after the version the client expected.
+     */
+    public static class PrestamosExceptionVersionConflict extends PrestamosException {
+        /**
+         * Constructs a new PrestamosExceptionVersionConflict with the specified detail message.
+         *
+         * @param message the detail message for the exception.
+         */
+        public PrestamosExceptionVersionConflict(String message) {
+            super(message);
+        }
+    }
 }
@@ -11,10 +11,11 @@ import java.util.List;
 
 /**
  * Repository interface for managing {@link Prestamo} entities in MongoDB.
- * Extends {@link MongoRepository} to provide CRUD operations and additional query methods.
+ * Extends {@link MongoRepository} to provide CRUD operations and additional query methods,
+ * and {@link PrestamoRepositoryCustom} for the queries built with {@code MongoTemplate}.
  */
 @Repository
-public interface PrestamoRepository extends MongoRepository<Prestamo, String> {
+public interface PrestamoRepository extends MongoRepository<Prestamo, String>, PrestamoRepositoryCustom {
     List<Prestamo> getPrestamosByIdLibro(String idLibro);
     List<Prestamo> findByEstado(@NotBlank(message = "El estado no puede estar vacío") @Pattern(regexp = "Prestado|Vencido|Devuelto", message = "El estado solo puede ser Prestado, Vencido o Devuelto") String estado);
     List<Prestamo> findByIdEstudiante(@NotBlank(message = "El id del estudiante no puede estar vacío") String idEstudiante);
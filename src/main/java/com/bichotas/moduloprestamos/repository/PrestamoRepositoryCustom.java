@@ -0,0 +1,185 @@
+package com.bichotas.moduloprestamos.repository;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Custom query operations for {@link Prestamo} entities that derived query methods cannot express.
+ * Implemented by {@link PrestamoRepositoryCustomImpl} with {@code MongoTemplate}.
+ */
+public interface PrestamoRepositoryCustom {
+
+    /**
+     * Retrieves the loans that come after the given ID in {@code _id} order (keyset pagination).
+     *
+     * @param estado  the state of the loans to retrieve, or null for every state
+     * @param afterId the ID of the last loan of the previous page, or null for the first page
+     * @param limit   the maximum number of loans to retrieve
+     * @param fields  the properties to read from each loan, or null to read whole documents
+     * @return up to {@code limit} loans sorted by ascending {@code _id}
+     */
+    List<Prestamo> findPageAfter(String estado, String afterId, int limit, Collection<String> fields);
+
+    /**
+     * Retrieves the loans with the given state, reading only the given properties of each one.
+     *
+     * @param estado the state of the loans to retrieve, or null for every state
+     * @param fields the properties to read from each loan, or null to read whole documents
+     * @return the matching loans
+     */
+    List<Prestamo> findProjected(String estado, Collection<String> fields);
+
+    /**
+     * Retrieves the loans of a book, resolved by the {@code idLibro_fechaPrestamo} index, reading only the given
+     * properties of each one.
+     *
+     * @param idLibro  the ID (ISBN) of the book
+     * @param pageable the page to read and its sort order
+     * @param fields   the properties to read from each loan, or null to read whole documents
+     * @return the loans of the book in the requested page
+     */
+    List<Prestamo> findProjectedByIdLibro(String idLibro, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Retrieves the loans of a student, reading only the given properties of each one.
+     *
+     * @param idEstudiante the ID of the student
+     * @param fields       the properties to read from each loan, or null to read whole documents
+     * @return the loans of the student
+     */
+    List<Prestamo> findProjectedByIdEstudiante(String idEstudiante, Collection<String> fields);
+
+    /**
+     * Streams the loans that match the given filters from a server-side cursor, without loading them all in memory.
+     * The returned stream must be closed to release the cursor.
+     *
+     * @param estado the state of the loans to retrieve, or null for every state
+     * @param desde  the first loan date to include, or null for no lower bound
+     * @param hasta  the last loan date to include, or null for no upper bound
+     * @return a stream over the matching loans
+     */
+    Stream<Prestamo> streamByFilters(String estado, LocalDate desde, LocalDate hasta);
+
+    /**
+     * Sets the given fields of a loan and increments its version in a single atomic update.
+     *
+     * @param id              the ID of the loan
+     * @param expectedVersion the version the loan must have to be updated, or null to update any version
+     * @param fields          the new values, keyed by entity property name
+     * @return true if the loan was updated, false if no loan with that ID (and version) exists
+     */
+    boolean updateFields(String id, Long expectedVersion, Map<String, Object> fields);
+
+    /**
+     * Marks a loan in state "Prestado" or "Vencido" as returned in a single atomic {@code findAndModify}.
+     *
+     * @param id              the ID of the loan
+     * @param historialEstado the condition of the book when it was returned
+     * @param fechaDevolucion the return date
+     * @return the loan after the update, or null if no loan with that ID is pending return
+     */
+    Prestamo markReturned(String id, String historialEstado, LocalDate fechaDevolucion);
+
+    /**
+     * Deletes a loan that has not been returned and is not overdue in a single atomic {@code findAndRemove}.
+     *
+     * @param id the ID of the loan
+     * @return the deleted loan, or null if no loan with that ID can be deleted
+     */
+    Prestamo deleteIfActive(String id);
+
+    /**
+     * Returns which of the given students have a loan in state "Prestado", in a single query.
+     *
+     * @param idEstudiantes the IDs of the students to check
+     * @return the IDs of the students that have an active loan
+     */
+    Set<String> findEstudiantesWithActivePrestamo(Collection<String> idEstudiantes);
+
+    /**
+     * Returns which of the given books have a loan in state "Prestado", in a single query.
+     *
+     * @param idLibros the IDs of the books to check
+     * @return the IDs of the books that have an active loan
+     */
+    Set<String> findLibrosWithActivePrestamo(Collection<String> idLibros);
+
+    /**
+     * Inserts the loans with unordered bulk writes: a failing loan does not stop the others.
+     *
+     * @param prestamos the loans to insert, with their IDs already assigned
+     * @throws org.springframework.data.mongodb.BulkOperationException if any loan could not be inserted;
+     *                                                                 its errors carry the position of each failed loan
+     */
+    void insertUnordered(List<Prestamo> prestamos);
+
+    /**
+     * Returns the loans in state "Prestado" or "Vencido" among the given IDs or of the given books, in a single query.
+     * Only the ID, the student, the book, the state and the version of each loan are read.
+     *
+     * @param ids      the IDs of the loans, may be empty
+     * @param idLibros the IDs of the books, may be empty
+     * @return the matching loans
+     */
+    List<Prestamo> findReturnable(Collection<String> ids, Collection<String> idLibros);
+
+    /**
+     * Marks every given loan that is lent or overdue as "Devuelto" with a single multi-document update,
+     * recording the condition of the book and the return date.
+     *
+     * @param ids             the IDs of the loans to return
+     * @param historialEstado the condition of the book when it was returned
+     * @param fechaDevolucion the return date
+     * @return the number of loans returned
+     */
+    long markReturned(Collection<String> ids, String historialEstado, LocalDate fechaDevolucion);
+
+    /**
+     * Returns which of the given loans are in the given state.
+     *
+     * @param ids    the IDs of the loans to check
+     * @param estado the state
+     * @return the IDs of the loans in that state
+     */
+    Set<String> findIdsWithEstado(Collection<String> ids, String estado);
+
+    /**
+     * Returns which of the given loans are returned on the given date with the given condition of the book, as set
+     * by {@link #markReturned(Collection, String, LocalDate)}.
+     *
+     * @param ids             the IDs of the loans to check
+     * @param historialEstado the condition of the book when it was returned
+     * @param fechaDevolucion the return date
+     * @return the IDs of the loans returned with that condition on that date
+     */
+    Set<String> findIdsReturned(Collection<String> ids, String historialEstado, LocalDate fechaDevolucion);
+
+    /**
+     * Streams the loans in state "Prestado" whose return date is before the given cutoff from a server-side cursor,
+     * in order of return date on the {@code estado_fechaDevolucion} index, fetching {@code batchSize} loans per round
+     * trip. Only the properties needed to notify the student are read.
+     * The returned stream must be closed to release the cursor.
+     *
+     * @param cutoff    the first return date that is not overdue
+     * @param batchSize the number of loans fetched per batch of the cursor
+     * @return a stream over the overdue loans
+     */
+    Stream<Prestamo> streamOverdue(LocalDate cutoff, int batchSize);
+
+    /**
+     * Marks the given loans as "Vencido" with a single multi-document update, only if they are still in state
+     * "Prestado" with a return date before the cutoff, incrementing their version.
+     *
+     * @param ids    the IDs of the loans to expire
+     * @param cutoff the first return date that is not overdue
+     * @return the number of loans marked as overdue
+     */
+    long markOverdue(Collection<String> ids, LocalDate cutoff);
+}
@@ -0,0 +1,235 @@
+package com.bichotas.moduloprestamos.repository;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * {@link MongoTemplate} implementation of {@link PrestamoRepositoryCustom}.
+ */
+public class PrestamoRepositoryCustomImpl implements PrestamoRepositoryCustom {
+
+    private static final int STREAM_BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public PrestamoRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Seeks past {@code afterId} on the {@code _id} index (or on the {@code estado_id} index when filtering by state)
+     * instead of skipping documents, so every page costs the same no matter how deep it is.
+     */
+    @Override
+    public List<Prestamo> findPageAfter(String estado, String afterId, int limit, Collection<String> fields) {
+        Criteria criteria = new Criteria();
+        if (estado != null) {
+            criteria.and("estado").is(estado);
+        }
+        if (afterId != null) {
+            criteria.and("_id").gt(new ObjectId(afterId));
+        }
+        Query query = new Query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(limit);
+        return mongoTemplate.find(project(query, fields), Prestamo.class);
+    }
+
+    @Override
+    public List<Prestamo> findProjected(String estado, Collection<String> fields) {
+        Criteria criteria = estado == null ? new Criteria() : Criteria.where("estado").is(estado);
+        return mongoTemplate.find(project(new Query(criteria), fields), Prestamo.class);
+    }
+
+    @Override
+    public List<Prestamo> findProjectedByIdLibro(String idLibro, Pageable pageable, Collection<String> fields) {
+        Query query = new Query(Criteria.where("idLibro").is(idLibro)).with(pageable);
+        return mongoTemplate.find(project(query, fields), Prestamo.class);
+    }
+
+    @Override
+    public List<Prestamo> findProjectedByIdEstudiante(String idEstudiante, Collection<String> fields) {
+        Query query = new Query(Criteria.where("idEstudiante").is(idEstudiante));
+        return mongoTemplate.find(project(query, fields), Prestamo.class);
+    }
+
+    /**
+     * Limits the query to the given properties, so the server only sends and the driver only decodes those.
+     * The {@code _id} is always returned.
+     */
+    private static Query project(Query query, Collection<String> fields) {
+        if (fields != null && !fields.isEmpty()) {
+            query.fields().include(fields.toArray(String[]::new));
+        }
+        return query;
+    }
+
+    @Override
+    public Stream<Prestamo> streamByFilters(String estado, LocalDate desde, LocalDate hasta) {
+        Criteria criteria = new Criteria();
+        if (estado != null) {
+            criteria.and("estado").is(estado);
+        }
+        if (desde != null || hasta != null) {
+            Criteria fechaPrestamo = criteria.and("fechaPrestamo");
+            if (desde != null) {
+                fechaPrestamo.gte(desde);
+            }
+            if (hasta != null) {
+                fechaPrestamo.lte(hasta);
+            }
+        }
+        Query query = new Query(criteria).cursorBatchSize(STREAM_BATCH_SIZE);
+        return mongoTemplate.stream(query, Prestamo.class);
+    }
+
+    @Override
+    public boolean updateFields(String id, Long expectedVersion, Map<String, Object> fields) {
+        Criteria criteria = Criteria.where("_id").is(id);
+        if (expectedVersion != null) {
+            criteria.and("version").is(expectedVersion);
+        }
+        Update update = new Update().inc("version", 1);
+        fields.forEach(update::set);
+        return mongoTemplate.updateFirst(new Query(criteria), update, Prestamo.class).getMatchedCount() > 0;
+    }
+
+    @Override
+    public Prestamo markReturned(String id, String historialEstado, LocalDate fechaDevolucion) {
+        Query query = new Query(Criteria.where("_id").is(id).and("estado").in("Prestado", "Vencido"));
+        Update update = new Update()
+                .set("estado", "Devuelto")
+                .set("historialEstado", historialEstado)
+                .set("fechaDevolucion", fechaDevolucion)
+                .inc("version", 1);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Prestamo.class);
+    }
+
+    @Override
+    public Prestamo deleteIfActive(String id) {
+        Query query = new Query(Criteria.where("_id").is(id).and("estado").nin("Devuelto", "Vencido"));
+        return mongoTemplate.findAndRemove(query, Prestamo.class);
+    }
+
+    @Override
+    public Set<String> findEstudiantesWithActivePrestamo(Collection<String> idEstudiantes) {
+        return findActive("idEstudiante", idEstudiantes);
+    }
+
+    @Override
+    public Set<String> findLibrosWithActivePrestamo(Collection<String> idLibros) {
+        return findActive("idLibro", idLibros);
+    }
+
+    /**
+     * Runs on the partial unique index of the field, which only holds loans in state "Prestado".
+     */
+    private Set<String> findActive(String field, Collection<String> values) {
+        Query query = new Query(Criteria.where(field).in(values).and("estado").is("Prestado"));
+        return new HashSet<>(mongoTemplate.findDistinct(query, field, Prestamo.class, String.class));
+    }
+
+    @Override
+    public void insertUnordered(List<Prestamo> prestamos) {
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Prestamo.class)
+                .insert(prestamos)
+                .execute();
+    }
+
+    @Override
+    public List<Prestamo> findReturnable(Collection<String> ids, Collection<String> idLibros) {
+        List<Criteria> selectors = new ArrayList<>();
+        if (!ids.isEmpty()) {
+            selectors.add(Criteria.where("_id").in(ids));
+        }
+        if (!idLibros.isEmpty()) {
+            selectors.add(Criteria.where("idLibro").in(idLibros));
+        }
+        if (selectors.isEmpty()) {
+            return List.of();
+        }
+        Query query = new Query(new Criteria()
+                .orOperator(selectors)
+                .and("estado").in("Prestado", "Vencido"));
+        query.fields().include("idEstudiante", "idLibro", "estado", "version");
+        return mongoTemplate.find(query, Prestamo.class);
+    }
+
+    @Override
+    public long markReturned(Collection<String> ids, String historialEstado, LocalDate fechaDevolucion) {
+        Query query = new Query(Criteria.where("_id").in(ids).and("estado").in("Prestado", "Vencido"));
+        Update update = new Update()
+                .set("estado", "Devuelto")
+                .set("historialEstado", historialEstado)
+                .set("fechaDevolucion", fechaDevolucion)
+                .inc("version", 1);
+        return mongoTemplate.updateMulti(query, update, Prestamo.class).getModifiedCount();
+    }
+
+    @Override
+    public Set<String> findIdsWithEstado(Collection<String> ids, String estado) {
+        return findIds(new Query(Criteria.where("_id").in(ids).and("estado").is(estado)));
+    }
+
+    @Override
+    public Set<String> findIdsReturned(Collection<String> ids, String historialEstado, LocalDate fechaDevolucion) {
+        return findIds(new Query(Criteria.where("_id").in(ids)
+                .and("estado").is("Devuelto")
+                .and("historialEstado").is(historialEstado)
+                .and("fechaDevolucion").is(fechaDevolucion)));
+    }
+
+    private Set<String> findIds(Query query) {
+        query.fields().include("_id");
+        Set<String> matching = new HashSet<>();
+        mongoTemplate.find(query, Prestamo.class).forEach(prestamo -> matching.add(prestamo.getId()));
+        return matching;
+    }
+
+    @Override
+    public Stream<Prestamo> streamOverdue(LocalDate cutoff, int batchSize) {
+        Query query = overdue(cutoff)
+                .with(Sort.by(Sort.Direction.ASC, "fechaDevolucion"))
+                .cursorBatchSize(batchSize);
+        return mongoTemplate.stream(query, Prestamo.class);
+    }
+
+    /**
+     * Loans in state "Prestado" with a return date before the cutoff, with only the properties needed to notify them.
+     */
+    private static Query overdue(LocalDate cutoff) {
+        Query query = new Query(Criteria.where("estado").is("Prestado").and("fechaDevolucion").lt(cutoff));
+        query.fields().include("idEstudiante", "idLibro", "fechaPrestamo", "fechaDevolucion");
+        return query;
+    }
+
+    @Override
+    public long markOverdue(Collection<String> ids, LocalDate cutoff) {
+        Query query = new Query(Criteria.where("_id").in(ids)
+                .and("estado").is("Prestado")
+                .and("fechaDevolucion").lt(cutoff));
+        Update update = new Update()
+                .set("estado", "Vencido")
+                .inc("version", 1);
+        return mongoTemplate.updateMulti(query, update, Prestamo.class).getModifiedCount();
+    }
+}
@@ -0,0 +1,13 @@
+package com.bichotas.moduloprestamos.repository;
+
+import com.bichotas.moduloprestamos.entity.SweepCheckpoint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository interface for the {@link SweepCheckpoint} documents, one per sweep.
+ * Checkpoints are written with {@link SweepCheckpointRepositoryCustom#saveFenced}.
+ */
+@Repository
+public interface SweepCheckpointRepository extends MongoRepository<SweepCheckpoint, String>, SweepCheckpointRepositoryCustom {
+}
@@ -0,0 +1,18 @@
+package com.bichotas.moduloprestamos.repository;
+
+import com.bichotas.moduloprestamos.entity.SweepCheckpoint;
+
+/**
+ * Writes of {@link SweepCheckpoint} that need conditions {@code MongoRepository} cannot express.
+ */
+public interface SweepCheckpointRepositoryCustom {
+
+    /**
+     * Saves the checkpoint unless the stored one was written with a higher fencing token, in a single atomic
+     * operation. A run holding an older lease cannot overwrite the progress of the run that took the lock over.
+     *
+     * @param checkpoint the checkpoint, with the token of the lease of the run
+     * @return true if the checkpoint was saved, false if a newer run owns it
+     */
+    boolean saveFenced(SweepCheckpoint checkpoint);
+}
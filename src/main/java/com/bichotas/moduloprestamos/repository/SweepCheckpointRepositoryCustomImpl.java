@@ -0,0 +1,40 @@
+package com.bichotas.moduloprestamos.repository;
+
+import com.bichotas.moduloprestamos.entity.SweepCheckpoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * {@link MongoTemplate} implementation of {@link SweepCheckpointRepositoryCustom}.
+ */
+public class SweepCheckpointRepositoryCustomImpl implements SweepCheckpointRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public SweepCheckpointRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Replaces the checkpoint only while its stored token is not higher, or inserts it if there is none. When a
+     * newer run owns the checkpoint the query does not match and the insert collides with the existing
+     * {@code _id}, so nothing is written.
+     */
+    @Override
+    public boolean saveFenced(SweepCheckpoint checkpoint) {
+        Query query = new Query(Criteria.where("_id").is(checkpoint.getId()).orOperator(
+                Criteria.where("token").lte(checkpoint.getToken()),
+                Criteria.where("token").exists(false)));
+        try {
+            mongoTemplate.findAndReplace(query, checkpoint, FindAndReplaceOptions.options().upsert());
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+}
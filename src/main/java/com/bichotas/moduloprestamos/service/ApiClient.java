@@ -8,12 +8,20 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import lombok.RequiredArgsConstructor;
 
 /**
  * ApiClient is responsible for communicating with the API Gateway to validate JWT tokens.
+ * <p>
+ * Calls to the gateway go through a bulkhead and a circuit breaker. When the gateway is degraded,
+ * validations of tokens that are not already cached fail fast instead of waiting for the timeouts.
  */
 @Component
 @RequiredArgsConstructor
@@ -23,37 +31,78 @@ public class ApiClient {
     private static final String APIGATEWAY_URL = "https://zw8dshmxwa.execute-api.us-east-1.amazonaws.com/BiblioSoft/";
 
     private final RestClient restClient;
+    private final TokenValidationCache tokenValidationCache;
+    private final CircuitBreaker apiGatewayCircuitBreaker;
+    private final Bulkhead apiGatewayBulkhead;
 
     /**
-     * Validates the provided JWT token by sending a request to the API Gateway.
+     * Validates the provided JWT token, using the cached result of a previous validation when available
+     * and sending a request to the API Gateway otherwise.
      *
      * @param token the JWT token to validate
      * @return true if the token is valid, false otherwise
      */
     public boolean validateToken(String token) {
         try {
-            ResponseEntity<Map> response = restClient.get()
+            return tokenValidationCache.validate(token, this::guardedTokenValidation);
+        } catch (CallNotPermittedException | BulkheadFullException e) {
+            LOGGER.warn("Token validation rejected, API Gateway unavailable: {}", e.getMessage());
+            return false;
+        } catch (Exception e) {
+            LOGGER.error("Error validating token: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Sends the validation request through the bulkhead and the circuit breaker.
+     *
+     * @param token the JWT token to validate
+     * @return true if the token is valid, false otherwise
+     * @throws BulkheadFullException     if too many validations are already in flight
+     * @throws CallNotPermittedException if the circuit breaker is open
+     */
+    private boolean guardedTokenValidation(String token) {
+        return apiGatewayBulkhead.executeSupplier(() ->
+                apiGatewayCircuitBreaker.executeSupplier(() -> requestTokenValidation(token)));
+    }
+
+    /**
+     * Validates the provided JWT token by sending a request to the API Gateway.
+     * Client errors are reported as an invalid token. Throttling ({@code 429}) and any other failure are propagated,
+     * so they count towards the circuit breaker and are not cached as an invalid token.
+     *
+     * @param token the JWT token to validate
+     * @return true if the token is valid, false otherwise
+     */
+    private boolean requestTokenValidation(String token) {
+        ResponseEntity<Map> response;
+        try {
+            response = restClient.get()
                     .uri(APIGATEWAY_URL + "auth/session")
                     .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
                     .accept(MediaType.APPLICATION_JSON)
                     .retrieve()
                     .toEntity(Map.class);
+        } catch (HttpClientErrorException.TooManyRequests e) {
+            LOGGER.warn("Token validation throttled by the API Gateway");
+            throw e;
+        } catch (HttpClientErrorException e) {
+            LOGGER.warn("Token validation failed with status: {}", e.getStatusCode());
+            return false;
+        }
 
-            if (!response.getStatusCode().is2xxSuccessful()) {
-                LOGGER.warn("Token validation failed with status: {}", response.getStatusCode());
-                return false;
-            }
-
-            Map<String, Object> responseBody = response.getBody();
-            if (responseBody != null && "401".equals(String.valueOf(responseBody.get("statusCode")))) {
-                LOGGER.warn("Token validation returned unauthorized status");
-                return false;
-            }
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            LOGGER.warn("Token validation failed with status: {}", response.getStatusCode());
+            return false;
+        }
 
-            return true;
-        } catch (Exception e) {
-            LOGGER.error("Error validating token: {}", e.getMessage(), e);
+        Map<String, Object> responseBody = response.getBody();
+        if (responseBody != null && "401".equals(String.valueOf(responseBody.get("statusCode")))) {
+            LOGGER.warn("Token validation returned unauthorized status");
             return false;
         }
+
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package com.bichotas.moduloprestamos.service;
+
+import com.bichotas.moduloprestamos.entity.SchedulerLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Lease-based lock shared by every instance of the service through the {@code scheduler_lock} collection, so that
+ * each scheduled job runs on a single instance at a time.
+ * <p>
+ * A lock is acquired with one atomic upsert that only matches when the previous lease has expired; if another
+ * instance holds it, the upsert collides with the existing document and the lock is not acquired. A lease lasts
+ * at most {@code lockAtMostFor}, so a crashed holder never blocks the job for longer than that, and at least
+ * {@code lockAtLeastFor}, so a job that finishes quickly is not run again by an instance whose clock is slightly
+ * behind. A long job keeps a short {@code lockAtMostFor} and {@linkplain #extend extends} its lease as it progresses.
+ * <p>
+ * Every acquisition increments the token of the lock. A holder whose lease expired while it was still running can
+ * then be fenced off: the resources it writes accept only writes with a token at least as high as the last one
+ * they saw.
+ */
+@Service
+public class ClusterLockService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterLockService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+    public ClusterLockService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Lease of a lock held by this instance.
+     *
+     * @param name           the name of the lock
+     * @param token          the fencing token of this acquisition
+     * @param lockedAt       when the lock was acquired
+     * @param lockAtMostFor  the time the lock is held from its acquisition or its last extension
+     * @param lockAtLeastFor the minimum time the lock is held
+     */
+    public record Lease(String name, long token, Instant lockedAt, Duration lockAtMostFor, Duration lockAtLeastFor) {
+    }
+
+    /**
+     * Runs the task if this instance acquires the lock, and releases the lock when the task ends.
+     *
+     * @param name           the name of the lock, one per job
+     * @param lockAtMostFor  the maximum time the lock is held if this instance does not release it
+     * @param lockAtLeastFor the minimum time the lock is held, even if the task ends earlier
+     * @param task           the task, which receives the lease with its fencing token
+     * @return true if the task ran, false if another instance holds the lock
+     */
+    public boolean runLocked(String name, Duration lockAtMostFor, Duration lockAtLeastFor, Consumer<Lease> task) {
+        Optional<Lease> lease = tryLock(name, lockAtMostFor, lockAtLeastFor);
+        if (lease.isEmpty()) {
+            LOGGER.debug("Lock {} is held by another instance, skipping the job", name);
+            return false;
+        }
+        try {
+            task.accept(lease.get());
+            return true;
+        } finally {
+            unlock(lease.get());
+        }
+    }
+
+    /**
+     * Acquires the lock if it is free or its lease has expired.
+     *
+     * @param name           the name of the lock
+     * @param lockAtMostFor  the maximum time the lock is held if it is not released
+     * @param lockAtLeastFor the minimum time the lock is held
+     * @return the lease, or empty if another instance holds the lock
+     */
+    public Optional<Lease> tryLock(String name, Duration lockAtMostFor, Duration lockAtLeastFor) {
+        if (lockAtLeastFor.compareTo(lockAtMostFor) > 0) {
+            throw new IllegalArgumentException("El tiempo mínimo del bloqueo " + name + " no puede superar al máximo");
+        }
+        Instant now = Instant.now();
+        Query query = new Query(Criteria.where("_id").is(name).and("bloqueadoHasta").lte(now));
+        Update update = new Update()
+                .set("bloqueadoHasta", now.plus(lockAtMostFor))
+                .set("bloqueadoEn", now)
+                .set("bloqueadoPor", nodeId)
+                .inc("token", 1);
+        try {
+            SchedulerLock lock = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), SchedulerLock.class);
+            if (lock == null) {
+                return Optional.empty();
+            }
+            LOGGER.debug("Lock {} acquired by {} with token {}", name, nodeId, lock.getToken());
+            return Optional.of(new Lease(name, lock.getToken(), now, lockAtMostFor, lockAtLeastFor));
+        } catch (DuplicateKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Extends the lease by its {@code lockAtMostFor} from now, as long as no other instance acquired the lock.
+     *
+     * @param lease the lease to extend
+     * @return false if another instance took the lock over
+     */
+    public boolean extend(Lease lease) {
+        Query query = new Query(Criteria.where("_id").is(lease.name()).and("token").is(lease.token()));
+        Update update = new Update().set("bloqueadoHasta", Instant.now().plus(lease.lockAtMostFor()));
+        return mongoTemplate.updateFirst(query, update, SchedulerLock.class).getMatchedCount() > 0;
+    }
+
+    /**
+     * Releases the lock, keeping it until {@code lockAtLeastFor} has passed since it was acquired. Nothing changes
+     * if another instance acquired the lock after this lease expired.
+     *
+     * @param lease the lease to release
+     */
+    public void unlock(Lease lease) {
+        Instant now = Instant.now();
+        Instant minimum = lease.lockedAt().plus(lease.lockAtLeastFor());
+        Query query = new Query(Criteria.where("_id").is(lease.name()).and("token").is(lease.token()));
+        Update update = new Update().set("bloqueadoHasta", now.isAfter(minimum) ? now : minimum);
+        if (mongoTemplate.updateFirst(query, update, SchedulerLock.class).getMatchedCount() == 0) {
+            LOGGER.warn("Lock {} was taken over by another instance before token {} was released", lease.name(), lease.token());
+        }
+    }
+}
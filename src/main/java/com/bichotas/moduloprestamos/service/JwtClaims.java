@@ -0,0 +1,11 @@
+package com.bichotas.moduloprestamos.service;
+
+/**
+ * The JWT claims used by the module.
+ *
+ * @param role       the {@code role} claim, or null if the token has none
+ * @param subject    the {@code sub} claim, or null if the token has none
+ * @param expiration the {@code exp} claim in epoch seconds, or null if the token has none
+ */
+public record JwtClaims(String role, String subject, Long expiration) {
+}
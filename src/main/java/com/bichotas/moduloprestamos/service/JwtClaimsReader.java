@@ -0,0 +1,272 @@
+package com.bichotas.moduloprestamos.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * JwtClaimsReader extracts the {@code role}, {@code sub} and {@code exp} claims from a JWT payload.
+ * <p>
+ * The payload is Base64URL-decoded straight from the token into a single byte array and scanned
+ * as JSON in place: whitespace and claim order do not matter, unknown claims (including nested
+ * objects and arrays) are skipped without being materialized, and only the values of the claims
+ * of interest become Strings.
+ */
+public final class JwtClaimsReader {
+
+    private static final byte[] ROLE = "role".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUBJECT = "sub".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPIRATION = "exp".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final byte[] BASE64_URL = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_URL, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_URL[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private JwtClaimsReader() {
+    }
+
+    /**
+     * Reads the claims of the given token.
+     *
+     * @param token the JWT token
+     * @return the claims found in the token payload
+     * @throws IllegalArgumentException if the token or its payload is malformed
+     */
+    public static JwtClaims read(String token) {
+        int start = token.indexOf('.') + 1;
+        int end = start == 0 ? -1 : token.indexOf('.', start);
+        if (end < 0) {
+            throw new IllegalArgumentException("El token no tiene el formato header.payload.signature");
+        }
+        byte[] payload = decode(token, start, end);
+        return parse(payload);
+    }
+
+    /**
+     * Decodes a Base64URL segment of the token, with or without padding, four characters at a time.
+     */
+    private static byte[] decode(String token, int start, int end) {
+        while (end > start && token.charAt(end - 1) == '=') {
+            end--;
+        }
+        int length = end - start;
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Payload Base64URL inválido");
+        }
+        byte[] out = new byte[length * 3 / 4];
+        int i = start;
+        int position = 0;
+        int quadsEnd = start + (length & ~3);
+        while (i < quadsEnd) {
+            int bits = sextet(token.charAt(i)) << 18 | sextet(token.charAt(i + 1)) << 12
+                    | sextet(token.charAt(i + 2)) << 6 | sextet(token.charAt(i + 3));
+            if (bits < 0) {
+                throw new IllegalArgumentException("Payload Base64URL inválido");
+            }
+            out[position] = (byte) (bits >> 16);
+            out[position + 1] = (byte) (bits >> 8);
+            out[position + 2] = (byte) bits;
+            position += 3;
+            i += 4;
+        }
+        if (i < end) {
+            int bits = sextet(token.charAt(i)) << 18 | sextet(token.charAt(i + 1)) << 12
+                    | (i + 2 < end ? sextet(token.charAt(i + 2)) << 6 : 0);
+            if (bits < 0) {
+                throw new IllegalArgumentException("Payload Base64URL inválido");
+            }
+            out[position] = (byte) (bits >> 16);
+            if (i + 2 < end) {
+                out[position + 1] = (byte) (bits >> 8);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns the 6-bit value of a Base64URL character, or a negative number if it is not one.
+     */
+    private static int sextet(char c) {
+        return c < 128 ? BASE64_URL[c] : -1;
+    }
+
+    private static JwtClaims parse(byte[] json) {
+        String role = null;
+        String subject = null;
+        Long expiration = null;
+
+        int i = expect(json, skipWhitespace(json, 0), '{');
+        i = skipWhitespace(json, i);
+        if (i < json.length && json[i] == '}') {
+            return new JwtClaims(null, null, null);
+        }
+        while (true) {
+            int keyStart = expect(json, i, '"');
+            int keyEnd = endOfString(json, keyStart);
+            i = skipWhitespace(json, expect(json, skipWhitespace(json, keyEnd + 1), ':'));
+            if (i >= json.length) {
+                throw new IllegalArgumentException("Payload JSON incompleto");
+            }
+            if (matches(json, keyStart, keyEnd, ROLE) && json[i] == '"') {
+                int valueEnd = endOfString(json, i + 1);
+                role = readString(json, i + 1, valueEnd);
+                i = valueEnd + 1;
+            } else if (matches(json, keyStart, keyEnd, SUBJECT) && json[i] == '"') {
+                int valueEnd = endOfString(json, i + 1);
+                subject = readString(json, i + 1, valueEnd);
+                i = valueEnd + 1;
+            } else if (matches(json, keyStart, keyEnd, EXPIRATION) && isNumberStart(json[i])) {
+                int valueEnd = endOfValue(json, i);
+                expiration = readLong(json, i, valueEnd);
+                i = valueEnd;
+            } else {
+                i = skipValue(json, i);
+            }
+            i = skipWhitespace(json, i);
+            if (i >= json.length) {
+                throw new IllegalArgumentException("Payload JSON incompleto");
+            }
+            if (json[i] == '}') {
+                return new JwtClaims(role, subject, expiration);
+            }
+            i = skipWhitespace(json, expect(json, i, ','));
+        }
+    }
+
+    private static int skipWhitespace(byte[] json, int i) {
+        while (i < json.length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int expect(byte[] json, int i, char expected) {
+        if (i >= json.length || json[i] != expected) {
+            throw new IllegalArgumentException("Payload JSON inválido: se esperaba '" + expected + "'");
+        }
+        return i + 1;
+    }
+
+    /**
+     * Returns the index of the closing quote of a string whose content starts at {@code i}.
+     */
+    private static int endOfString(byte[] json, int i) {
+        for (; i < json.length; i++) {
+            byte b = json[i];
+            if (b == '"') {
+                return i;
+            }
+            if (b == '\\') {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Payload JSON inválido: cadena sin cerrar");
+    }
+
+    /**
+     * Returns the index right after a number or literal value starting at {@code i}.
+     */
+    private static int endOfValue(byte[] json, int i) {
+        while (i < json.length && json[i] != ',' && json[i] != '}' && json[i] != ']'
+                && json[i] != ' ' && json[i] != '\t' && json[i] != '\n' && json[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index right after the value starting at {@code i}, skipping nested objects and arrays.
+     */
+    private static int skipValue(byte[] json, int i) {
+        if (i >= json.length) {
+            throw new IllegalArgumentException("Payload JSON incompleto");
+        }
+        if (json[i] == '"') {
+            return endOfString(json, i + 1) + 1;
+        }
+        if (json[i] != '{' && json[i] != '[') {
+            return endOfValue(json, i);
+        }
+        int depth = 0;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') {
+                i = endOfString(json, i + 1);
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        throw new IllegalArgumentException("Payload JSON incompleto");
+    }
+
+    private static boolean matches(byte[] json, int start, int end, byte[] name) {
+        return end - start == name.length && Arrays.equals(json, start, end, name, 0, name.length);
+    }
+
+    private static boolean isNumberStart(byte b) {
+        return b == '-' || (b >= '0' && b <= '9');
+    }
+
+    /**
+     * Reads the integer part of a JSON number; a fractional part, if any, is ignored. More than
+     * {@value #MAX_LONG_DIGITS} digits are rejected, so the value cannot overflow.
+     */
+    private static long readLong(byte[] json, int start, int end) {
+        boolean negative = json[start] == '-';
+        int first = negative ? start + 1 : start;
+        long value = 0;
+        for (int i = first; i < end && json[i] >= '0' && json[i] <= '9'; i++) {
+            if (i - first == MAX_LONG_DIGITS) {
+                throw new IllegalArgumentException("Número del payload demasiado largo");
+            }
+            value = value * 10 + (json[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static String readString(byte[] json, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (json[i] == '\\') {
+                return unescape(json, start, end);
+            }
+        }
+        return new String(json, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(byte[] json, int start, int end) {
+        String raw = new String(json, start, end - start, StandardCharsets.UTF_8);
+        StringBuilder builder = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= raw.length()) {
+                builder.append(c);
+                continue;
+            }
+            char escaped = raw.charAt(++i);
+            switch (escaped) {
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    if (i + 5 > raw.length()) {
+                        throw new IllegalArgumentException("Secuencia de escape incompleta en el payload");
+                    }
+                    builder.append((char) Integer.parseInt(raw, i + 1, i + 5, 16));
+                    i += 4;
+                }
+                default -> builder.append(escaped);
+            }
+        }
+        return builder.toString();
+    }
+}
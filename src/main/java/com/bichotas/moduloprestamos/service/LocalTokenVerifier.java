@@ -0,0 +1,151 @@
+package com.bichotas.moduloprestamos.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Key;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * LocalTokenVerifier validates JWT tokens without calling the API Gateway.
+ * <p>
+ * The signature is checked against a public key set (JWKS) loaded from {@code auth.jwks.location},
+ * which may be any Spring resource location ({@code https:}, {@code file:} or {@code classpath:}).
+ * The key set is kept in memory and refreshed periodically; the {@code exp} and {@code nbf} claims
+ * are checked locally with a small clock skew.
+ */
+@Component
+public class LocalTokenVerifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalTokenVerifier.class);
+    private static final DefaultJWSVerifierFactory VERIFIER_FACTORY = new DefaultJWSVerifierFactory();
+
+    /**
+     * Result of a local verification.
+     */
+    public enum Verdict {
+        VALID,
+        INVALID,
+        UNKNOWN_KEY
+    }
+
+    private final ResourceLoader resourceLoader;
+    private final String jwksLocation;
+    private final Duration clockSkew;
+    private volatile JWKSet keySet = new JWKSet();
+
+    public LocalTokenVerifier(ResourceLoader resourceLoader,
+                              @Value("${auth.jwks.location:}") String jwksLocation,
+                              @Value("${auth.jwks.clock-skew:30s}") Duration clockSkew) {
+        this.resourceLoader = resourceLoader;
+        this.jwksLocation = jwksLocation;
+        this.clockSkew = clockSkew;
+    }
+
+    /**
+     * Reloads the public key set from the configured location.
+     * If the key set cannot be loaded, the previously loaded keys are kept.
+     */
+    @Scheduled(fixedDelayString = "${auth.jwks.refresh-interval:PT5M}")
+    public void refreshKeys() {
+        if (!StringUtils.hasText(jwksLocation)) {
+            return;
+        }
+        try (InputStream inputStream = resourceLoader.getResource(jwksLocation).getInputStream()) {
+            keySet = JWKSet.load(inputStream);
+            LOGGER.debug("Loaded {} keys from {}", keySet.getKeys().size(), jwksLocation);
+        } catch (IOException | ParseException e) {
+            LOGGER.warn("Could not load JWKS from {}: {}", jwksLocation, e.getMessage());
+        }
+    }
+
+    /**
+     * Verifies the signature and validity period of the given token.
+     *
+     * @param token the JWT token to verify
+     * @return {@link Verdict#VALID} if the token is valid, {@link Verdict#UNKNOWN_KEY} if no loaded key
+     * matches the token's key ID, and {@link Verdict#INVALID} otherwise
+     */
+    public Verdict verify(String token) {
+        SignedJWT jwt;
+        try {
+            jwt = SignedJWT.parse(token);
+        } catch (ParseException e) {
+            return Verdict.INVALID;
+        }
+        JWK jwk = findKey(jwt.getHeader());
+        if (jwk == null) {
+            return Verdict.UNKNOWN_KEY;
+        }
+        try {
+            if (jwk.getAlgorithm() != null && !jwk.getAlgorithm().equals(jwt.getHeader().getAlgorithm())) {
+                return Verdict.INVALID;
+            }
+            if (!jwt.verify(VERIFIER_FACTORY.createJWSVerifier(jwt.getHeader(), toKey(jwk)))) {
+                return Verdict.INVALID;
+            }
+            return isWithinValidityPeriod(jwt.getJWTClaimsSet()) ? Verdict.VALID : Verdict.INVALID;
+        } catch (JOSEException | ParseException e) {
+            LOGGER.debug("Token verification failed: {}", e.getMessage());
+            return Verdict.INVALID;
+        }
+    }
+
+    /**
+     * Finds the key that signed the token, by key ID or, when the token has none, the only loaded key.
+     *
+     * @param header the token header
+     * @return the matching key, or null if there is none
+     */
+    private JWK findKey(JWSHeader header) {
+        JWKSet keys = keySet;
+        if (header.getKeyID() != null) {
+            return keys.getKeyByKeyId(header.getKeyID());
+        }
+        List<JWK> loadedKeys = keys.getKeys();
+        return loadedKeys.size() == 1 ? loadedKeys.get(0) : null;
+    }
+
+    private static Key toKey(JWK jwk) throws JOSEException {
+        if (jwk instanceof AsymmetricJWK asymmetricJWK) {
+            return asymmetricJWK.toPublicKey();
+        }
+        throw new JOSEException("Only public keys are supported for local verification");
+    }
+
+    /**
+     * Checks the {@code exp} and {@code nbf} claims. Tokens without {@code exp} are rejected.
+     *
+     * @param claims the token claims
+     * @return true if the token is currently valid
+     */
+    private boolean isWithinValidityPeriod(JWTClaimsSet claims) {
+        Instant now = Instant.now();
+        Date expiration = claims.getExpirationTime();
+        if (expiration == null || expiration.toInstant().plus(clockSkew).isBefore(now)) {
+            return false;
+        }
+        Date notBefore = claims.getNotBeforeTime();
+        return notBefore == null || !notBefore.toInstant().minus(clockSkew).isAfter(now);
+    }
+}
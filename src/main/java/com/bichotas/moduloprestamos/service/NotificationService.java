@@ -0,0 +1,75 @@
+package com.bichotas.moduloprestamos.service;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoVencidoDTO;
+
+/**
+ * Builds the notifications that follow a change of a loan.
+ * <p>
+ * No notification API is integrated yet, so the notifications are built but not sent: each one is only logged at
+ * debug level as not sent. The methods run on the application task executor, so the request that changed the loans
+ * will not wait for the sending once it is added, and a failing notification does not undo the change.
+ */
+@Service
+public class NotificationService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationService.class);
+
+    /**
+     * Builds the return notification of each of the given loans.
+     *
+     * @param prestamos the loans that have been returned
+     */
+    @Async
+    public void notifyDevoluciones(List<Prestamo> prestamos) {
+        for (Prestamo prestamo : prestamos) {
+            try {
+                DevolucionDTO devolucionDTO = DevolucionDTO.builder()
+                        .userId(prestamo.getIdEstudiante())
+                        .emailGuardian("")
+                        .bookId(prestamo.getIdLibro())
+                        .bookName("")
+                        .loanReturn(true)
+                        .build();
+                LOGGER.debug("Return notification for loan {} of user {} not sent: no notification API is configured",
+                        prestamo.getId(), devolucionDTO.getUserId());
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not build the return notification of loan {}: {}", prestamo.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the overdue notification to the guardian of each of the given loans.
+     *
+     * @param prestamos the loans that have been marked as overdue
+     */
+    @Async
+    public void notifyVencimientos(List<Prestamo> prestamos) {
+        for (Prestamo prestamo : prestamos) {
+            try {
+                PrestamoVencidoDTO prestamoVencido = PrestamoVencidoDTO.builder()
+                        .prestamoId(prestamo.getId())
+                        .userId(prestamo.getIdEstudiante())
+                        .emailGuardian("")
+                        .bookId(prestamo.getIdLibro())
+                        .bookName("")
+                        .fechaInicialPrestamo(prestamo.getFechaPrestamo())
+                        .fechaFinalPrestamo(prestamo.getFechaDevolucion())
+                        .build();
+                LOGGER.debug("Overdue notification for loan {} of user {} not sent: no notification API is configured",
+                        prestamo.getId(), prestamoVencido.getUserId());
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not build the overdue notification of loan {}: {}", prestamo.getId(), e.getMessage());
+            }
+        }
+    }
+}
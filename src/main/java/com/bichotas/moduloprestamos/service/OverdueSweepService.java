@@ -0,0 +1,497 @@
+package com.bichotas.moduloprestamos.service;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.SweepCheckpoint;
+import com.bichotas.moduloprestamos.entity.dto.SweepPartitionDTO;
+import com.bichotas.moduloprestamos.entity.dto.SweepProgressDTO;
+import com.bichotas.moduloprestamos.repository.PrestamoRepository;
+import com.bichotas.moduloprestamos.repository.SweepCheckpointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Marks the overdue prestamos as "Vencido" in bounded chunks, split into hash partitions of the prestamo IDs that
+ * are processed in parallel, saving a {@link SweepCheckpoint} per partition after each chunk.
+ * <p>
+ * The overdue prestamos are read from a single cursor on the {@code estado_fechaDevolucion} index, and each one is
+ * handed to its partition ({@link #partitionOf}). The chunks of a partition are expired one after the other on a
+ * local pool, with one conditional multi-document update each ({@link PrestamoService#expireOverdue}), so the
+ * partitions advance in parallel while the reader never holds more than a few chunks per thread in memory.
+ * <p>
+ * An expired prestamo no longer matches the query of the sweep, so reopening the cursor after a crash or a deploy
+ * continues exactly where the interrupted run stopped: nothing is expired twice and nothing is skipped, even for
+ * a chunk that was written but whose checkpoint was not saved. Each scheduled run of a day has its own key, so a
+ * later run of the same day scans the overdue range again; a partition is resumed while its checkpoint is from the
+ * same run, and an unfinished run is superseded by the next one, whose cutoff covers it.
+ * <p>
+ * The partitions are claimed through {@link ClusterLockService}: by default one instance takes the
+ * {@value #LOCK_NAME} lock for all of them, and with {@code prestamos.sweep.partition-leases} each instance claims
+ * partitions with a lock per partition, so the replicas share the sweep. Leases are extended after each chunk and
+ * checkpoints are saved with their fencing token, so a partition taken over by a newer lease stops at its next chunk.
+ */
+@Service
+public class OverdueSweepService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OverdueSweepService.class);
+
+    /**
+     * Prefix of the IDs of the checkpoints of this sweep, followed by the partition number.
+     */
+    public static final String SWEEP_ID = "prestamos-vencidos";
+
+    /**
+     * Name of the cluster lock held while the sweep runs, followed by the partition number when each partition
+     * has its own lease.
+     */
+    public static final String LOCK_NAME = "overdue-sweep";
+
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+    private static final Comparator<SweepCheckpoint> LATEST_STARTED = Comparator
+            .comparing(SweepCheckpoint::getFecha, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(SweepCheckpoint::getIniciado, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final PrestamoRepository prestamoRepository;
+    private final PrestamoService prestamoService;
+    private final SweepCheckpointRepository checkpointRepository;
+    private final ClusterLockService clusterLockService;
+    private final int chunkSize;
+    private final int partitions;
+    private final int parallelism;
+    private final boolean partitionLeases;
+    private final int partitionsPerNode;
+    private final Duration lockAtMostFor;
+    private final Duration lockAtLeastFor;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public OverdueSweepService(PrestamoRepository prestamoRepository, PrestamoService prestamoService,
+                               SweepCheckpointRepository checkpointRepository, ClusterLockService clusterLockService,
+                               @Value("${prestamos.sweep.chunk-size:500}") int chunkSize,
+                               @Value("${prestamos.sweep.partitions:8}") int partitions,
+                               @Value("${prestamos.sweep.parallelism:0}") int parallelism,
+                               @Value("${prestamos.sweep.partition-leases:false}") boolean partitionLeases,
+                               @Value("${prestamos.sweep.partitions-per-node:0}") int partitionsPerNode,
+                               @Value("${prestamos.sweep.lock-at-most:10m}") Duration lockAtMostFor,
+                               @Value("${prestamos.sweep.lock-at-least:5m}") Duration lockAtLeastFor) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("El tamaño de lote del barrido debe ser mayor que cero");
+        }
+        if (partitions < 1) {
+            throw new IllegalArgumentException("El número de particiones del barrido debe ser mayor que cero");
+        }
+        this.prestamoRepository = prestamoRepository;
+        this.prestamoService = prestamoService;
+        this.checkpointRepository = checkpointRepository;
+        this.clusterLockService = clusterLockService;
+        this.chunkSize = chunkSize;
+        this.partitions = partitions;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.partitionLeases = partitionLeases;
+        this.partitionsPerNode = partitionsPerNode > 0 ? partitionsPerNode : partitions;
+        this.lockAtMostFor = lockAtMostFor;
+        this.lockAtLeastFor = lockAtLeastFor;
+    }
+
+    /**
+     * Result of the partitions of a sweep processed by this instance.
+     *
+     * @param fecha      the date of the sweep
+     * @param ejecucion  the key of the run within the day
+     * @param partitions the number of partitions processed
+     * @param lotes      the number of chunks processed
+     * @param vencidos   the number of prestamos marked as overdue
+     * @param durationMs the time taken, in milliseconds
+     * @param skew       the largest number of prestamos expired by a partition divided by the mean (1 is even)
+     */
+    public record SweepReport(LocalDate fecha, String ejecucion, int partitions, int lotes, long vencidos, long durationMs, double skew) {
+    }
+
+    /**
+     * State of one partition during a run. Its chunks are chained on {@link #tail}, so they run one at a time.
+     */
+    private static final class PartitionRun {
+        private final SweepCheckpoint checkpoint;
+        private final ClusterLockService.Lease lease;
+        private List<Prestamo> buffer;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private volatile boolean stopped;
+        private volatile RuntimeException failure;
+
+        private PartitionRun(SweepCheckpoint checkpoint, ClusterLockService.Lease lease, int chunkSize) {
+            this.checkpoint = checkpoint;
+            this.lease = lease;
+            this.buffer = new ArrayList<>(chunkSize);
+        }
+    }
+
+    /**
+     * Returns the partition of a prestamo.
+     *
+     * @param id         the ID of the prestamo
+     * @param partitions the number of partitions
+     * @return a partition between 0 and {@code partitions - 1}
+     */
+    public static int partitionOf(String id, int partitions) {
+        return Math.floorMod(id.hashCode(), partitions);
+    }
+
+    /**
+     * Runs the partitions of the given run of the sweep that this instance can claim, resuming the interrupted ones
+     * and skipping the ones that run already completed. With partition leases, it keeps claiming the partitions left
+     * unfinished by other instances until none is left.
+     *
+     * @param today     the date of the sweep
+     * @param ejecucion the key of the run within the day, the same on every instance that fires the same schedule
+     * @return the result of the partitions processed here, or null if there was nothing to claim or a run is
+     * already in progress on this instance
+     */
+    public SweepReport run(LocalDate today, String ejecucion) {
+        if (!running.compareAndSet(false, true)) {
+            LOGGER.warn("Overdue sweep is already running on this instance");
+            return null;
+        }
+        try {
+            long start = System.nanoTime();
+            List<SweepCheckpoint> done = new ArrayList<>();
+            Map<Integer, ClusterLockService.Lease> leases = claim(today, ejecucion);
+            while (!leases.isEmpty()) {
+                List<SweepCheckpoint> completed;
+                try {
+                    completed = sweep(today, ejecucion, leases);
+                } finally {
+                    new HashSet<>(leases.values()).forEach(clusterLockService::unlock);
+                }
+                done.addAll(completed);
+                leases = partitionLeases && !completed.isEmpty() ? claim(today, ejecucion) : Map.of();
+            }
+            if (done.isEmpty()) {
+                return null;
+            }
+            SweepReport report = new SweepReport(today, ejecucion, done.size(),
+                    done.stream().mapToInt(SweepCheckpoint::getLotes).sum(),
+                    done.stream().mapToLong(SweepCheckpoint::getVencidos).sum(),
+                    (System.nanoTime() - start) / 1_000_000,
+                    skew(done, SweepCheckpoint::getVencidos));
+            LOGGER.info("Overdue sweep of {} ({}) processed {} partitions: {} loans expired in {} chunks, skew {}",
+                    today, ejecucion, report.partitions(), report.vencidos(), report.lotes(), String.format("%.2f", report.skew()));
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Returns the run of the given day that started and did not complete, either because it is still running or
+     * because it was interrupted.
+     *
+     * @param today the date of the sweep
+     * @return the key of the run with a checkpoint still in progress, or empty if there is none
+     */
+    public Optional<String> unfinishedRun(LocalDate today) {
+        return checkpoints().values().stream()
+                .filter(checkpoint -> today.equals(checkpoint.getFecha())
+                        && checkpoint.getParticiones() == partitions
+                        && SweepCheckpoint.EN_CURSO.equals(checkpoint.getEstado()))
+                .map(SweepCheckpoint::getEjecucion)
+                .filter(Objects::nonNull)
+                .findFirst();
+    }
+
+    /**
+     * Returns the progress of the last run of the sweep, with the progress of each partition and the skew between
+     * them.
+     *
+     * @return the progress, with only the name of the sweep if it never ran
+     */
+    public SweepProgressDTO progress() {
+        List<SweepCheckpoint> checkpoints = List.copyOf(checkpoints().values());
+        if (checkpoints.isEmpty()) {
+            return SweepProgressDTO.builder().sweep(SWEEP_ID).enEjecucion(running.get()).build();
+        }
+        SweepCheckpoint latest = checkpoints.stream().max(LATEST_STARTED).orElseThrow();
+        LocalDate fecha = latest.getFecha();
+        List<SweepCheckpoint> last = checkpoints.stream()
+                .filter(checkpoint -> fecha.equals(checkpoint.getFecha()) && Objects.equals(latest.getEjecucion(), checkpoint.getEjecucion()))
+                .toList();
+        boolean completed = last.size() == partitions
+                && last.stream().allMatch(checkpoint -> SweepCheckpoint.COMPLETADO.equals(checkpoint.getEstado()));
+        LocalDateTime iniciado = last.stream().map(SweepCheckpoint::getIniciado).min(LocalDateTime::compareTo).orElse(null);
+        LocalDateTime actualizado = last.stream().map(SweepCheckpoint::getActualizado).max(LocalDateTime::compareTo).orElse(null);
+        LocalDateTime finalizado = completed
+                ? last.stream().map(SweepCheckpoint::getFinalizado).max(LocalDateTime::compareTo).orElse(null) : null;
+        LocalDateTime end = finalizado != null ? finalizado : running.get() ? LocalDateTime.now() : actualizado;
+        return SweepProgressDTO.builder()
+                .sweep(SWEEP_ID)
+                .fecha(fecha)
+                .ejecucion(latest.getEjecucion())
+                .estado(completed ? SweepCheckpoint.COMPLETADO : SweepCheckpoint.EN_CURSO)
+                .lotes(last.stream().mapToInt(SweepCheckpoint::getLotes).sum())
+                .vencidos(last.stream().mapToLong(SweepCheckpoint::getVencidos).sum())
+                .reanudaciones(last.stream().mapToInt(SweepCheckpoint::getReanudaciones).sum())
+                .iniciado(iniciado)
+                .actualizado(actualizado)
+                .finalizado(finalizado)
+                .duracionMs(elapsedMillis(iniciado, end))
+                .enEjecucion(running.get())
+                .particiones(last.stream().map(OverdueSweepService::partitionProgress).toList())
+                .sesgoVencidos(skew(last, SweepCheckpoint::getVencidos))
+                .sesgoDuracion(skew(last, OverdueSweepService::partitionMillis))
+                .build();
+    }
+
+    private static SweepPartitionDTO partitionProgress(SweepCheckpoint checkpoint) {
+        return SweepPartitionDTO.builder()
+                .particion(checkpoint.getParticion())
+                .estado(checkpoint.getEstado())
+                .lotes(checkpoint.getLotes())
+                .vencidos(checkpoint.getVencidos())
+                .duracionMs(partitionMillis(checkpoint))
+                .build();
+    }
+
+    private static long partitionMillis(SweepCheckpoint checkpoint) {
+        return elapsedMillis(checkpoint.getIniciado(),
+                checkpoint.getFinalizado() != null ? checkpoint.getFinalizado() : checkpoint.getActualizado());
+    }
+
+    /**
+     * Claims the partitions that the given run did not complete yet: all of them under one lock, or as many as
+     * {@code partitions-per-node} under a lock each, starting at a random partition so the instances spread out.
+     */
+    private Map<Integer, ClusterLockService.Lease> claim(LocalDate today, String ejecucion) {
+        Map<Integer, SweepCheckpoint> checkpoints = checkpoints();
+        List<Integer> pending = IntStream.range(0, partitions)
+                .filter(partition -> !isCompleted(checkpoints.get(partition), today, ejecucion))
+                .boxed()
+                .toList();
+        Map<Integer, ClusterLockService.Lease> leases = new LinkedHashMap<>();
+        if (pending.isEmpty()) {
+            return leases;
+        }
+        if (!partitionLeases) {
+            clusterLockService.tryLock(LOCK_NAME, lockAtMostFor, lockAtLeastFor)
+                    .ifPresent(lease -> pending.forEach(partition -> leases.put(partition, lease)));
+            return leases;
+        }
+        int offset = ThreadLocalRandom.current().nextInt(pending.size());
+        for (int i = 0; i < pending.size() && leases.size() < partitionsPerNode; i++) {
+            int partition = pending.get((offset + i) % pending.size());
+            clusterLockService.tryLock(LOCK_NAME + "-" + partition, lockAtMostFor, lockAtLeastFor)
+                    .ifPresent(lease -> leases.put(partition, lease));
+        }
+        return leases;
+    }
+
+    private boolean isCompleted(SweepCheckpoint checkpoint, LocalDate today, String ejecucion) {
+        return belongsTo(checkpoint, today, ejecucion) && SweepCheckpoint.COMPLETADO.equals(checkpoint.getEstado());
+    }
+
+    private boolean belongsTo(SweepCheckpoint checkpoint, LocalDate today, String ejecucion) {
+        return checkpoint != null && today.equals(checkpoint.getFecha()) && ejecucion.equals(checkpoint.getEjecucion())
+                && checkpoint.getParticiones() == partitions;
+    }
+
+    private Map<Integer, SweepCheckpoint> checkpoints() {
+        List<String> ids = IntStream.range(0, partitions).mapToObj(OverdueSweepService::checkpointId).toList();
+        Map<Integer, SweepCheckpoint> checkpoints = new HashMap<>();
+        checkpointRepository.findAllById(ids).forEach(checkpoint -> checkpoints.put(checkpoint.getParticion(), checkpoint));
+        return checkpoints;
+    }
+
+    private static String checkpointId(int partition) {
+        return SWEEP_ID + "-" + partition;
+    }
+
+    /**
+     * Expires the overdue prestamos of the claimed partitions and completes their checkpoints.
+     *
+     * @return the checkpoints of the partitions that completed
+     */
+    private List<SweepCheckpoint> sweep(LocalDate today, String ejecucion, Map<Integer, ClusterLockService.Lease> leases) {
+        Map<Integer, PartitionRun> runs = new HashMap<>();
+        leases.forEach((partition, lease) -> start(today, ejecucion, partition, lease.token())
+                .ifPresent(checkpoint -> runs.put(partition, new PartitionRun(checkpoint, lease, chunkSize))));
+        if (runs.isEmpty()) {
+            return List.of();
+        }
+        int threads = Math.min(parallelism, runs.size());
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "overdue-sweep-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(threads * CHUNKS_IN_FLIGHT_PER_THREAD);
+        try (Stream<Prestamo> overdue = prestamoRepository.streamOverdue(PrestamoService.overdueCutoff(today), chunkSize)) {
+            Iterator<Prestamo> iterator = overdue.iterator();
+            while (iterator.hasNext()) {
+                Prestamo prestamo = iterator.next();
+                PartitionRun run = runs.get(partitionOf(prestamo.getId(), partitions));
+                if (run == null || run.stopped) {
+                    continue;
+                }
+                run.buffer.add(prestamo);
+                if (run.buffer.size() == chunkSize) {
+                    submit(run, executor, inFlight);
+                }
+            }
+            runs.values().stream().filter(run -> !run.buffer.isEmpty()).forEach(run -> submit(run, executor, inFlight));
+            runs.values().forEach(run -> run.tail = run.tail.thenRunAsync(() -> complete(run), executor));
+        } finally {
+            CompletableFuture.allOf(runs.values().stream().map(run -> run.tail).toArray(CompletableFuture[]::new)).join();
+            executor.shutdown();
+        }
+        for (PartitionRun run : runs.values()) {
+            if (run.failure != null) {
+                throw run.failure;
+            }
+        }
+        return runs.values().stream()
+                .filter(run -> !run.stopped)
+                .map(run -> run.checkpoint)
+                .toList();
+    }
+
+    /**
+     * Queues the buffered chunk of a partition after its previous chunks, waiting while too many chunks are queued.
+     * A failure stops the partition instead of failing the chain, so every queued chunk releases its permit.
+     */
+    private void submit(PartitionRun run, ExecutorService executor, Semaphore inFlight) {
+        List<Prestamo> chunk = run.buffer;
+        run.buffer = new ArrayList<>(chunkSize);
+        inFlight.acquireUninterruptibly();
+        run.tail = run.tail.thenRunAsync(() -> {
+            try {
+                if (!run.stopped && !expireChunk(run, chunk)) {
+                    run.stopped = true;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Overdue sweep partition {} failed: {}", run.checkpoint.getParticion(), e.getMessage());
+                run.failure = e;
+                run.stopped = true;
+            } finally {
+                inFlight.release();
+            }
+        }, executor);
+    }
+
+    private void complete(PartitionRun run) {
+        if (run.stopped) {
+            return;
+        }
+        SweepCheckpoint checkpoint = run.checkpoint;
+        checkpoint.setEstado(SweepCheckpoint.COMPLETADO);
+        checkpoint.setFinalizado(LocalDateTime.now());
+        checkpoint.setActualizado(checkpoint.getFinalizado());
+        try {
+            run.stopped = !save(checkpoint);
+        } catch (RuntimeException e) {
+            run.failure = e;
+            run.stopped = true;
+        }
+    }
+
+    /**
+     * Loads the checkpoint of a partition for the given run, or starts a new one if the last one belongs to another
+     * run or to a different number of partitions.
+     *
+     * @return the checkpoint to continue, or empty if the partition is completed or owned by a newer lease
+     */
+    private Optional<SweepCheckpoint> start(LocalDate today, String ejecucion, int partition, long token) {
+        SweepCheckpoint previous = checkpointRepository.findById(checkpointId(partition)).orElse(null);
+        if (belongsTo(previous, today, ejecucion)) {
+            if (!SweepCheckpoint.EN_CURSO.equals(previous.getEstado())) {
+                return Optional.empty();
+            }
+            previous.setReanudaciones(previous.getReanudaciones() + 1);
+            previous.setActualizado(LocalDateTime.now());
+            previous.setToken(token);
+            LOGGER.info("Resuming overdue sweep partition {} of {} ({}) after {} chunks and {} expired loans",
+                    partition, today, ejecucion, previous.getLotes(), previous.getVencidos());
+            return save(previous) ? Optional.of(previous) : Optional.empty();
+        }
+        if (previous != null && SweepCheckpoint.EN_CURSO.equals(previous.getEstado())) {
+            LOGGER.warn("Overdue sweep partition {} of {} ({}) did not complete, the run {} of {} covers it",
+                    partition, previous.getFecha(), previous.getEjecucion(), ejecucion, today);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        SweepCheckpoint checkpoint = SweepCheckpoint.builder()
+                .id(checkpointId(partition))
+                .particion(partition)
+                .particiones(partitions)
+                .fecha(today)
+                .ejecucion(ejecucion)
+                .corte(PrestamoService.overdueCutoff(today))
+                .estado(SweepCheckpoint.EN_CURSO)
+                .iniciado(now)
+                .actualizado(now)
+                .token(token)
+                .build();
+        return save(checkpoint) ? Optional.of(checkpoint) : Optional.empty();
+    }
+
+    private boolean expireChunk(PartitionRun run, List<Prestamo> chunk) {
+        SweepCheckpoint checkpoint = run.checkpoint;
+        List<Prestamo> expired = prestamoService.expireOverdue(chunk, checkpoint.getCorte());
+        checkpoint.setLotes(checkpoint.getLotes() + 1);
+        checkpoint.setVencidos(checkpoint.getVencidos() + expired.size());
+        checkpoint.setActualizado(LocalDateTime.now());
+        LOGGER.debug("Overdue sweep partition {} chunk {} expired {} of {} loans",
+                checkpoint.getParticion(), checkpoint.getLotes(), expired.size(), chunk.size());
+        if (!save(checkpoint)) {
+            return false;
+        }
+        if (!clusterLockService.extend(run.lease)) {
+            LOGGER.warn("Lease {} with token {} could not be extended", run.lease.name(), run.lease.token());
+        }
+        return true;
+    }
+
+    private boolean save(SweepCheckpoint checkpoint) {
+        if (checkpointRepository.saveFenced(checkpoint)) {
+            return true;
+        }
+        LOGGER.warn("Overdue sweep partition {} of {} was taken over by a run with a token newer than {}, stopping",
+                checkpoint.getParticion(), checkpoint.getFecha(), checkpoint.getToken());
+        return false;
+    }
+
+    /**
+     * Returns the largest value divided by the mean, 1 when the partitions are even.
+     */
+    private static double skew(Collection<SweepCheckpoint> checkpoints, ToDoubleFunction<SweepCheckpoint> value) {
+        double mean = checkpoints.stream().mapToDouble(value).average().orElse(0);
+        double max = checkpoints.stream().mapToDouble(value).max().orElse(0);
+        return mean == 0 ? 1 : max / mean;
+    }
+
+    private static long elapsedMillis(LocalDateTime from, LocalDateTime to) {
+        return from == null || to == null ? 0 : Duration.between(from, to).toMillis();
+    }
+}
@@ -0,0 +1,107 @@
+package com.bichotas.moduloprestamos.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * PrestamoCache keeps recently read loans by ID so that the polling of the loan detail pages does not
+ * reach MongoDB on every request.
+ * <p>
+ * The cache is bounded by size and every entry expires after a fixed TTL, which also bounds how long a
+ * change made by another instance can go unseen. Every write of {@link PrestamoService} that matched a loan
+ * invalidates the entries of the loans it changed. A load in progress for a key finishes before that key is invalidated,
+ * so a value read before a write cannot be cached after it. The invalidations are also handed to the
+ * invalidation publisher, when there is one, so the other instances evict the same loans (see
+ * {@link PrestamoInvalidationBus}). Hit, miss and eviction counts are published as {@code cache.*} metrics.
+ * <p>
+ * The cached loans are shared between callers and must not be modified.
+ */
+@Component
+public class PrestamoCache {
+
+    private static final String CACHE_NAME = "prestamoById";
+
+    private final Cache<String, Prestamo> cache;
+    private volatile Consumer<Collection<String>> invalidationPublisher = ids -> { };
+
+    public PrestamoCache(MeterRegistry meterRegistry,
+                         @Value("${prestamos.cache.max-size:10000}") long maxSize,
+                         @Value("${prestamos.cache.ttl:30s}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the cached loan with the given ID, or loads and caches it. Concurrent loads of the same ID
+     * are coalesced into one. Loans that do not exist are not cached.
+     *
+     * @param id     the ID of the loan
+     * @param loader the function that reads the loan, returning null if it does not exist
+     * @return the loan, or null if it does not exist
+     */
+    public Prestamo get(String id, Function<String, Prestamo> loader) {
+        return cache.get(id, loader);
+    }
+
+    /**
+     * Removes the loan with the given ID from the cache of every instance.
+     *
+     * @param id the ID of the loan
+     */
+    public void invalidate(String id) {
+        cache.invalidate(id);
+        invalidationPublisher.accept(List.of(id));
+    }
+
+    /**
+     * Removes the loans with the given IDs from the cache of every instance.
+     *
+     * @param ids the IDs of the loans
+     */
+    public void invalidateAll(Collection<String> ids) {
+        cache.invalidateAll(ids);
+        invalidationPublisher.accept(ids);
+    }
+
+    /**
+     * Removes the loans with the given IDs from the cache of this instance only, when another instance changed them.
+     *
+     * @param ids the IDs of the loans
+     */
+    public void evict(Collection<String> ids) {
+        cache.invalidateAll(ids);
+    }
+
+    /**
+     * Empties the cache of this instance, when the invalidations of other instances may have been missed.
+     */
+    public void evictAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Sets where the invalidations of this instance are sent so the other instances apply them too.
+     *
+     * @param invalidationPublisher the function that sends the invalidated IDs
+     */
+    public void setInvalidationPublisher(Consumer<Collection<String>> invalidationPublisher) {
+        this.invalidationPublisher = invalidationPublisher;
+    }
+}
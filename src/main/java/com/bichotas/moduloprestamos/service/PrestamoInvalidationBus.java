@@ -0,0 +1,286 @@
+package com.bichotas.moduloprestamos.service;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Spreads the invalidations of the {@link PrestamoCache} to every instance of the service through a MongoDB
+ * capped collection, which works on a standalone server as well as on a replica set.
+ * <p>
+ * Each invalidation is inserted as one message with the invalidated loan IDs and the ID of the instance that
+ * sent it. The messages are inserted on a background thread, so a write does not wait for them. Every instance follows the collection with a tailable cursor that waits on the server for new
+ * messages, and evicts the loans of the messages sent by the other instances as soon as they arrive.
+ * <p>
+ * The collection only keeps the most recent messages. When the cursor has to be reopened, it skips the messages
+ * up to the last one read; if that message is no longer in the collection, some invalidations may have been
+ * missed, so the whole cache is emptied.
+ * The TTL of the cache still bounds how long a missed invalidation can go unseen.
+ */
+@Component
+@ConditionalOnProperty(name = "prestamos.cache.invalidation.enabled", havingValue = "true", matchIfMissing = true)
+public class PrestamoInvalidationBus implements SmartLifecycle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrestamoInvalidationBus.class);
+    private static final long MAX_AWAIT_MILLIS = 1000;
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    private final MongoTemplate mongoTemplate;
+    private final PrestamoCache prestamoCache;
+    private final String collectionName;
+    private final long cappedSizeBytes;
+    private final long maxMessages;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Counter published;
+    private final Counter received;
+    private volatile boolean running;
+    private volatile Thread listener;
+    private ExecutorService publisher;
+    private ObjectId lastSeen;
+
+    public PrestamoInvalidationBus(MongoTemplate mongoTemplate, PrestamoCache prestamoCache, MeterRegistry meterRegistry,
+                                   @Value("${prestamos.cache.invalidation.collection:prestamo_invalidation}") String collectionName,
+                                   @Value("${prestamos.cache.invalidation.capped-size-bytes:1048576}") long cappedSizeBytes,
+                                   @Value("${prestamos.cache.invalidation.max-messages:10000}") long maxMessages) {
+        this.mongoTemplate = mongoTemplate;
+        this.prestamoCache = prestamoCache;
+        this.collectionName = collectionName;
+        this.cappedSizeBytes = cappedSizeBytes;
+        this.maxMessages = maxMessages;
+        this.published = Counter.builder("prestamos.cache.invalidations")
+                .description("Cache invalidation messages sent to or received from other instances")
+                .tag("direction", "published")
+                .register(meterRegistry);
+        this.received = Counter.builder("prestamos.cache.invalidations")
+                .description("Cache invalidation messages sent to or received from other instances")
+                .tag("direction", "received")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        publisher = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "prestamo-invalidation-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService executor = publisher;
+        prestamoCache.setInvalidationPublisher(ids -> {
+            try {
+                executor.execute(() -> publish(ids));
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Invalidation bus stopped, the invalidation of {} loans is not published", ids.size());
+            }
+        });
+        listener = new Thread(this::listen, "prestamo-invalidation-bus");
+        listener.setDaemon(true);
+        listener.start();
+        LOGGER.info("Prestamo cache invalidation bus started on {} as node {}", collectionName, nodeId);
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        prestamoCache.setInvalidationPublisher(ids -> { });
+        if (publisher != null) {
+            publisher.shutdown();
+            publisher = null;
+        }
+        if (listener != null) {
+            listener.interrupt();
+            listener = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sends the invalidated loan IDs to the other instances. A failure is only logged: the loans were already
+     * evicted here, and the other instances still expire them after the TTL of the cache.
+     *
+     * @param ids the IDs of the invalidated loans
+     */
+    public void publish(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            collection().insertOne(message(List.copyOf(ids)));
+            published.increment();
+        } catch (MongoException | DataAccessException e) {
+            LOGGER.warn("Could not publish the invalidation of {} loans: {}", ids.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Follows the collection until the bus is stopped, reopening the cursor after any failure.
+     */
+    private void listen() {
+        while (running) {
+            try {
+                if (lastSeen == null) {
+                    if (!ensureCappedCollection()) {
+                        stop();
+                        return;
+                    }
+                    lastSeen = insertMarker();
+                }
+                tail();
+            } catch (MongoException | DataAccessException e) {
+                LOGGER.warn("Prestamo cache invalidation cursor failed, reopening in {} ms: {}", RETRY_DELAY_MILLIS, e.getMessage());
+            }
+            if (running && !sleep(RETRY_DELAY_MILLIS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the messages after the last one seen. The {@code _id} of a message is generated by the instance that
+     * sent it, so it does not follow the insertion order across instances: the cursor reads the whole collection in
+     * natural order, which is the insertion order of a capped collection, and skips up to the last message seen.
+     * The collection always holds at least that message or a newer one, so the query is never empty (which would
+     * close a tailable cursor right away).
+     */
+    private void tail() {
+        try (MongoCursor<Document> cursor = collection()
+                .find()
+                .cursorType(CursorType.TailableAwait)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                .iterator()) {
+            Document message = skipSeen(cursor);
+            while (running) {
+                if (message != null) {
+                    onMessage(message);
+                } else if (cursor.getServerCursor() == null) {
+                    return;
+                }
+                message = cursor.tryNext();
+            }
+        }
+    }
+
+    /**
+     * Skips the messages up to the last one seen. When that message is no longer in the collection, some
+     * invalidations may have been missed, so the whole cache is emptied.
+     *
+     * @param cursor the cursor positioned at the start of the collection
+     * @return the first message after the last one seen, or null if there is none yet
+     */
+    Document skipSeen(MongoCursor<Document> cursor) {
+        Document message;
+        while ((message = cursor.tryNext()) != null) {
+            if (lastSeen.equals(message.getObjectId("_id"))) {
+                return cursor.tryNext();
+            }
+        }
+        LOGGER.warn("Prestamo cache invalidations may have been missed, evicting every cached loan");
+        prestamoCache.evictAll();
+        return null;
+    }
+
+    /**
+     * Evicts the loans of a message sent by another instance.
+     *
+     * @param message the invalidation message
+     */
+    void onMessage(Document message) {
+        lastSeen = message.getObjectId("_id");
+        if (nodeId.equals(message.getString("nodeId"))) {
+            return;
+        }
+        List<String> ids = message.getList("ids", String.class);
+        if (ids != null && !ids.isEmpty()) {
+            prestamoCache.evict(ids);
+            received.increment();
+        }
+    }
+
+    /**
+     * Creates the capped collection if it does not exist yet.
+     *
+     * @return false if a collection with that name exists and is not capped, so it cannot be tailed
+     */
+    private boolean ensureCappedCollection() {
+        if (!mongoTemplate.collectionExists(collectionName)) {
+            try {
+                mongoTemplate.createCollection(collectionName,
+                        CollectionOptions.empty().capped().size(cappedSizeBytes).maxDocuments(maxMessages));
+                return true;
+            } catch (DataAccessException e) {
+                LOGGER.debug("Collection {} was created by another instance: {}", collectionName, e.getMessage());
+            }
+        }
+        Document info = mongoTemplate.getDb().listCollections().filter(Filters.eq("name", collectionName)).first();
+        Document options = info == null ? null : info.get("options", Document.class);
+        if (options == null || !options.getBoolean("capped", false)) {
+            LOGGER.error("Collection {} is not capped, prestamo cache invalidations will not be shared", collectionName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Inserts an empty message to start reading from, so the messages sent before this instance started are skipped.
+     */
+    private ObjectId insertMarker() {
+        Document marker = message(List.of());
+        collection().insertOne(marker);
+        return marker.getObjectId("_id");
+    }
+
+    private Document message(List<String> ids) {
+        return new Document("_id", new ObjectId())
+                .append("nodeId", nodeId)
+                .append("ids", ids)
+                .append("fecha", new Date());
+    }
+
+    private MongoCollection<Document> collection() {
+        return mongoTemplate.getCollection(collectionName);
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+}
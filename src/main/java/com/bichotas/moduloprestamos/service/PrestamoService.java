@@ -1,15 +1,46 @@
 package com.bichotas.moduloprestamos.service;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
 import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.dto.BulkResultDTO;
 import com.bichotas.moduloprestamos.entity.dto.DevolucionDTO;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionResultDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoPageDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoResumenDTO;
 import com.bichotas.moduloprestamos.exception.PrestamosException;
 import com.bichotas.moduloprestamos.repository.PrestamoRepository;
 
@@ -28,28 +59,219 @@ import com.bichotas.moduloprestamos.repository.PrestamoRepository;
 @Service
 public class PrestamoService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrestamoService.class);
+    private static final String PRESTADO = "Prestado";
     private static final String VENCIDO = "Vencido";
     private static final String DEVUELTO = "Devuelto";
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_BULK_SIZE = 5000;
+    private static final int MAX_DEVOLUCION_BATCH_SIZE = 500;
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    private static final String VERSION_CONFLICTS_METRIC = "prestamos.version.conflicts";
+    private static final Sort BY_FECHA_PRESTAMO_DESC = Sort.by(Sort.Direction.DESC, "fechaPrestamo");
+    private static final Set<String> PRESTAMO_FIELDS = Arrays.stream(Prestamo.class.getDeclaredFields())
+            .filter(field -> !Modifier.isStatic(field.getModifiers()))
+            .map(Field::getName)
+            .collect(Collectors.toUnmodifiableSet());
     private final PrestamoRepository prestamoRepository;
+    private final Validator validator;
+    private final NotificationService notificationService;
+    private final PrestamoCache prestamoCache;
+    private final Counter updateVersionConflicts;
 
     @Autowired
-    public PrestamoService(PrestamoRepository prestamoRepository) {
+    public PrestamoService(PrestamoRepository prestamoRepository, Validator validator, NotificationService notificationService,
+                           PrestamoCache prestamoCache, MeterRegistry meterRegistry) {
         this.prestamoRepository = prestamoRepository;
+        this.validator = validator;
+        this.notificationService = notificationService;
+        this.prestamoCache = prestamoCache;
+        this.updateVersionConflicts = Counter.builder(VERSION_CONFLICTS_METRIC)
+                .description("Conditional writes rejected because the loan no longer had the expected version")
+                .tag("operacion", "update")
+                .register(meterRegistry);
     }
 
     /**
      * Creates a new Prestamo (loan) with the current date and time, performs validations,
      * and saves it to the repository.
+     * The single active loan per student and per book is enforced by the partial unique indexes of the collection,
+     * so the loan is inserted in one round trip and concurrent requests cannot both succeed.
+     * The ID and version sent by the client are discarded, so the save is always an insert and never overwrites
+     * an existing loan.
      *
      * @param prestamo the Prestamo object to be created
      * @return the saved Prestamo object
+     * @throws PrestamosException.PrestamosExceptionEstudianteHasPrestamo if the student already has an active loan
+     * @throws PrestamosException.PrestamosExceptionBookIsAvailable       if the book already has an active loan
      */
     public Prestamo createPrestamo(Prestamo prestamo) {
+        prestamo.setId(null);
+        prestamo.setVersion(null);
         prestamo.setFechaPrestamo(LocalDate.now());
         prestamo.setFechaCreacion(LocalDateTime.now());
         createPrestamoValidations(prestamo);
         sendEmail(prestamo);
-        return prestamoRepository.save(prestamo);
+        return save(prestamo);
+    }
+
+    /**
+     * Saves the Prestamo, translating a violation of the active loan unique indexes into the matching exception.
+     *
+     * @param prestamo the Prestamo object to be saved
+     * @return the saved Prestamo object
+     */
+    private Prestamo save(Prestamo prestamo) {
+        try {
+            return prestamoRepository.save(prestamo);
+        } catch (DuplicateKeyException e) {
+            throw activeLoanConflict(e);
+        }
+    }
+
+    private static RuntimeException activeLoanConflict(DuplicateKeyException e) {
+        String message = String.valueOf(e.getMessage());
+        if (message.contains(Prestamo.ESTUDIANTE_PRESTAMO_ACTIVO_INDEX)) {
+            return new PrestamosException.PrestamosExceptionEstudianteHasPrestamo("El estudiante ya tiene un préstamo activo");
+        }
+        if (message.contains(Prestamo.LIBRO_PRESTAMO_ACTIVO_INDEX)) {
+            return new PrestamosException.PrestamosExceptionBookIsAvailable("El libro ya tiene un préstamo activo");
+        }
+        return e;
+    }
+
+    /**
+     * Creates a batch of Prestamos (loans), reporting the result of each one by its position in the batch.
+     * <p>
+     * Every loan is validated in memory. Students and books that already have an active loan are looked up
+     * with one query each for the whole batch, and a student or book repeated within the batch only gets
+     * its first loan. The accepted loans are inserted with unordered bulk writes, so a loan rejected by the
+     * database (for example, by a concurrent request) does not stop the rest of the batch.
+     *
+     * @param prestamos the Prestamo objects to be created
+     * @return one result per loan, in the same order as the batch
+     * @throws IllegalArgumentException if the batch is empty or has more than {@value #MAX_BULK_SIZE} loans
+     */
+    public List<BulkResultDTO> createPrestamos(List<Prestamo> prestamos) {
+        if (prestamos == null || prestamos.isEmpty()) {
+            throw new IllegalArgumentException("El lote de préstamos no puede estar vacío");
+        }
+        if (prestamos.size() > MAX_BULK_SIZE) {
+            throw new IllegalArgumentException("El lote no puede tener más de " + MAX_BULK_SIZE + " préstamos");
+        }
+        BulkResultDTO[] results = new BulkResultDTO[prestamos.size()];
+        LocalDate fechaPrestamo = LocalDate.now();
+        LocalDateTime fechaCreacion = LocalDateTime.now();
+        for (int i = 0; i < prestamos.size(); i++) {
+            Prestamo prestamo = prestamos.get(i);
+            if (prestamo == null) {
+                results[i] = rejected(i, "El préstamo no puede ser nulo");
+                continue;
+            }
+            prestamo.setFechaPrestamo(fechaPrestamo);
+            prestamo.setFechaCreacion(fechaCreacion);
+            String error = validationError(prestamo);
+            if (error != null) {
+                results[i] = rejected(i, error);
+            }
+        }
+
+        Set<String> idEstudiantes = new HashSet<>();
+        Set<String> idLibros = new HashSet<>();
+        for (int i = 0; i < prestamos.size(); i++) {
+            if (results[i] == null && PRESTADO.equals(prestamos.get(i).getEstado())) {
+                idEstudiantes.add(prestamos.get(i).getIdEstudiante());
+                idLibros.add(prestamos.get(i).getIdLibro());
+            }
+        }
+        Set<String> estudiantesOcupados = idEstudiantes.isEmpty() ? new HashSet<>()
+                : new HashSet<>(prestamoRepository.findEstudiantesWithActivePrestamo(idEstudiantes));
+        Set<String> librosOcupados = idLibros.isEmpty() ? new HashSet<>()
+                : new HashSet<>(prestamoRepository.findLibrosWithActivePrestamo(idLibros));
+
+        List<Prestamo> accepted = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < prestamos.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            Prestamo prestamo = prestamos.get(i);
+            if (PRESTADO.equals(prestamo.getEstado())) {
+                if (!estudiantesOcupados.add(prestamo.getIdEstudiante())) {
+                    results[i] = rejected(i, "El estudiante ya tiene un préstamo activo");
+                    continue;
+                }
+                if (!librosOcupados.add(prestamo.getIdLibro())) {
+                    results[i] = rejected(i, "El libro ya tiene un préstamo activo");
+                    continue;
+                }
+            }
+            prestamo.setId(new ObjectId().toHexString());
+            prestamo.setVersion(0L);
+            accepted.add(prestamo);
+            positions.add(i);
+        }
+
+        if (!accepted.isEmpty()) {
+            insertBatch(accepted, positions, results);
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                Prestamo prestamo = prestamos.get(i);
+                results[i] = BulkResultDTO.builder().index(i).id(prestamo.getId()).status(BulkResultDTO.CREADO).build();
+                sendEmail(prestamo);
+            }
+        }
+        return List.of(results);
+    }
+
+    /**
+     * Inserts the accepted loans and records the ones the database rejected. The loans are inserted with
+     * their IDs already assigned, so a loan without a recorded error was created.
+     */
+    private void insertBatch(List<Prestamo> accepted, List<Integer> positions, BulkResultDTO[] results) {
+        try {
+            prestamoRepository.insertUnordered(accepted);
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                int position = positions.get(error.getIndex());
+                results[position] = rejected(position, bulkWriteErrorMessage(error));
+            }
+            LOGGER.warn("Bulk loan creation: {} of {} inserts rejected", e.getErrors().size(), accepted.size());
+        }
+    }
+
+    private static String bulkWriteErrorMessage(BulkWriteError error) {
+        if (error.getCode() == DUPLICATE_KEY_ERROR) {
+            if (error.getMessage().contains(Prestamo.ESTUDIANTE_PRESTAMO_ACTIVO_INDEX)) {
+                return "El estudiante ya tiene un préstamo activo";
+            }
+            if (error.getMessage().contains(Prestamo.LIBRO_PRESTAMO_ACTIVO_INDEX)) {
+                return "El libro ya tiene un préstamo activo";
+            }
+        }
+        return "No se pudo crear el préstamo: " + error.getMessage();
+    }
+
+    /**
+     * Returns the first validation error of the Prestamo, or null if it is valid.
+     */
+    private String validationError(Prestamo prestamo) {
+        Set<ConstraintViolation<Prestamo>> violations = validator.validate(prestamo);
+        if (!violations.isEmpty()) {
+            return violations.iterator().next().getMessage();
+        }
+        try {
+            createPrestamoValidations(prestamo);
+        } catch (PrestamosException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    private static BulkResultDTO rejected(int index, String error) {
+        return BulkResultDTO.builder().index(index).status(BulkResultDTO.RECHAZADO).error(error).build();
     }
 
     /**
@@ -65,15 +287,10 @@ public class PrestamoService {
      * for creating a new loan.
      *
      * @param prestamo the Prestamo object to be validated
-     * @throws PrestamosException.PrestamosExceptionEstudianteHasPrestamo if the student already has an active loan
-     * @throws PrestamosException.PrestamosExceptionBookIsAvailable       if the book is not available
-     * @throws PrestamosException.PrestamosExceptionTimeError             if the loan date is after the return date
-     * @throws PrestamosException.PrestamosExceptionStateError            if the state is not one of "Prestado", "Vencido", or "Devuelto"
+     * @throws PrestamosException.PrestamosExceptionTimeError  if the loan date is after the return date
+     * @throws PrestamosException.PrestamosExceptionStateError if the state is not one of "Prestado", "Vencido", or "Devuelto"
      */
     private void createPrestamoValidations(Prestamo prestamo) {
-        if (verifyIfEstudianteHasPrestamo(prestamo.getIdEstudiante())) {
-            throw new PrestamosException.PrestamosExceptionEstudianteHasPrestamo("El estudiante ya tiene un préstamo activo");
-        }
         if (prestamo.getFechaDevolucion() != null && prestamo.getFechaPrestamo().isAfter(prestamo.getFechaDevolucion())) {
             throw new PrestamosException.PrestamosExceptionTimeError("La fecha de préstamo no puede ser después de la fecha de devolución");
         }
@@ -83,196 +300,312 @@ public class PrestamoService {
     }
 
     /**
-     * Verifies if a student has an active Prestamo.
+     * Retrieves the Prestamo objects with the given estado, or all of them if it is null, reading only the
+     * requested properties in MongoDB.
      *
-     * @param idEstudiante the ID of the student
-     * @return true if the student has an active Prestamo, false otherwise
+     * @param estado the state of the Prestamo objects to retrieve, or null for every state
+     * @param fields the comma separated properties to return, or null for {@link Prestamo#SUMMARY_FIELDS}
+     * @return the matching Prestamo objects with only the requested properties
+     * @throws PrestamosException.PrestamosExceptionStateError if the estado is not one of "Prestado", "Vencido", or "Devuelto"
+     * @throws IllegalArgumentException                       if a requested property does not exist
      */
-    private boolean verifyIfEstudianteHasPrestamo(String idEstudiante) {
-        /*List<Prestamo> prestamos = prestamoRepository.findByIdEstudiante(idEstudiante);
-        for (Prestamo prestamo : prestamos) {
-            if (prestamo.getEstado().equals("Prestado")) {
-                return true;
-            }
-        }*/
-        return false;
+    public List<PrestamoResumenDTO> getPrestamos(String estado, String fields) {
+        if (estado != null && !estado.matches("Prestado|Vencido|Devuelto")) {
+            throw new PrestamosException.PrestamosExceptionStateError("El estado solo puede ser Prestado, Vencido o Devuelto");
+        }
+        return resumen(prestamoRepository.findProjected(estado, projection(fields)));
+    }
+
+    private static List<PrestamoResumenDTO> resumen(List<Prestamo> prestamos) {
+        return prestamos.stream().map(PrestamoResumenDTO::of).toList();
     }
 
     /**
-     * Retrieves a list of Prestamo objects based on the provided estado.
-     * If the estado is null, it retrieves all Prestamo objects.
-     * If the estado is "Prestado", it retrieves all Prestamo objects that are currently lent out.
-     * If the estado is "Vencido", it retrieves all Prestamo objects that are overdue.
-     * If the estado is "Devuelto", it retrieves all Prestamo objects that have been returned.
+     * Resolves the {@code fields} request parameter into the properties to read from MongoDB.
      *
-     * @param estado the state of the Prestamo objects to retrieve. It can be "Prestado", "Vencido", or "Devuelto".
-     * @return a list of Prestamo objects matching the specified estado.
-     * @throws PrestamosException.PrestamosExceptionStateError if the estado is not one of "Prestado", "Vencido", or "Devuelto".
+     * @param fields the comma separated properties, or null for {@link Prestamo#SUMMARY_FIELDS}
+     * @return the properties to read
+     * @throws IllegalArgumentException if a property does not exist
      */
-    public List<Prestamo> getPrestamos(String estado) {
-        if (estado == null) {
-            return getPrestamos();
-        } else {
-            switch (estado) {
-                case "Prestado":
-                    return getPrestamosPrestado();
-                case "Vencido":
-                    return getPrestamosVencido();
-                case "Devuelto":
-                    return getPrestamosDevuelto();
-                default:
-                    throw new PrestamosException.PrestamosExceptionStateError("El estado solo puede ser Prestado, Vencido o Devuelto");
+    private static Set<String> projection(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return new LinkedHashSet<>(Prestamo.SUMMARY_FIELDS);
+        }
+        Set<String> projection = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!PRESTAMO_FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Campo no válido: " + name);
             }
+            projection.add(name);
         }
+        return projection;
     }
 
     /**
-     * Retrieves a list of all Prestamo entities from the repository.
+     * Retrieves a page of Prestamo objects using keyset pagination on the loan ID.
+     * Each page continues right after the last loan of the previous one, so its cost does not depend on how
+     * many loans came before it.
      *
-     * @return a List of Prestamo objects.
+     * @param estado the state of the Prestamo objects to retrieve, or null for every state
+     * @param limit  the maximum number of Prestamo objects in the page, or null for the default page size
+     * @param cursor the continuation token returned with the previous page, or null for the first page
+     * @param fields the comma separated properties to return, or null for {@link Prestamo#SUMMARY_FIELDS}
+     * @return the page, with the continuation token of the next page or null if it is the last one
+     * @throws PrestamosException.PrestamosExceptionStateError if the estado is not one of "Prestado", "Vencido", or "Devuelto"
+     * @throws IllegalArgumentException                       if the limit is out of range, the cursor is not valid
+     *                                                        or a requested property does not exist
      */
-    private List<Prestamo> getPrestamos() {
-        return prestamoRepository.findAll();
+    public PrestamoPageDTO getPrestamosPage(String estado, Integer limit, String cursor, String fields) {
+        if (estado != null && !estado.matches("Prestado|Vencido|Devuelto")) {
+            throw new PrestamosException.PrestamosExceptionStateError("El estado solo puede ser Prestado, Vencido o Devuelto");
+        }
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("El límite debe estar entre 1 y " + MAX_PAGE_SIZE);
+        }
+        String afterId = cursor == null ? null : decodeCursor(cursor);
+        List<Prestamo> prestamos = prestamoRepository.findPageAfter(estado, afterId, pageSize + 1, projection(fields));
+        String nextCursor = null;
+        if (prestamos.size() > pageSize) {
+            prestamos = prestamos.subList(0, pageSize);
+            nextCursor = encodeCursor(prestamos.get(pageSize - 1).getId());
+        }
+        return PrestamoPageDTO.builder()
+                .prestamos(resumen(prestamos))
+                .nextCursor(nextCursor)
+                .build();
     }
 
-    /**
-     * Retrieves a list of loans that are currently in the "Prestado" (loaned) state.
-     *
-     * @return a list of {@link Prestamo} objects that have the status "Prestado".
-     */
-    private List<Prestamo> getPrestamosPrestado() {
-        return prestamoRepository.findByEstado("Prestado");
+    private static String encodeCursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.US_ASCII));
     }
 
-    /**
-     * Retrieves a list of loans that are overdue.
-     *
-     * @return a list of {@link Prestamo} objects with the status "Vencido".
-     */
-    private List<Prestamo> getPrestamosVencido() {
-        return prestamoRepository.findByEstado(VENCIDO);
+    private static String decodeCursor(String cursor) {
+        String id;
+        try {
+            id = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("El cursor no es válido");
+        }
+        if (!ObjectId.isValid(id)) {
+            throw new IllegalArgumentException("El cursor no es válido");
+        }
+        return id;
     }
 
     /**
-     * Retrieves a list of loans that have been returned.
+     * Streams the Prestamo objects that match the given filters, reading them from a MongoDB cursor
+     * instead of loading the whole result in memory. The filters are validated before the cursor is opened.
+     * The returned stream must be closed to release the cursor.
      *
-     * @return a list of {@link Prestamo} objects with the status "Devuelto".
+     * @param estado the state of the Prestamo objects to export, or null for every state
+     * @param desde  the first loan date to include, or null for no lower bound
+     * @param hasta  the last loan date to include, or null for no upper bound
+     * @return a stream over the matching Prestamo objects
+     * @throws PrestamosException.PrestamosExceptionStateError if the estado is not one of "Prestado", "Vencido", or "Devuelto"
+     * @throws PrestamosException.PrestamosExceptionTimeError  if desde is after hasta
      */
-    private List<Prestamo> getPrestamosDevuelto() {
-        return prestamoRepository.findByEstado(DEVUELTO);
+    public Stream<Prestamo> streamPrestamos(String estado, LocalDate desde, LocalDate hasta) {
+        if (estado != null && !estado.matches("Prestado|Vencido|Devuelto")) {
+            throw new PrestamosException.PrestamosExceptionStateError("El estado solo puede ser Prestado, Vencido o Devuelto");
+        }
+        if (desde != null && hasta != null && desde.isAfter(hasta)) {
+            throw new PrestamosException.PrestamosExceptionTimeError("La fecha desde no puede ser después de la fecha hasta");
+        }
+        return prestamoRepository.streamByFilters(estado, desde, hasta);
     }
 
-
     /**
-     * Retrieves a prestamo by its ID.
+     * Retrieves a prestamo by its ID, through the {@link PrestamoCache}.
      *
      * @param id the ID of the prestamo
      * @return the prestamo with the given ID
      */
     public Prestamo getPrestamoById(String id) {
-        return prestamoRepository.findById(id).orElseThrow(() ->
-                new PrestamosException.PrestamosExceptionPrestamoIdNotFound("El préstamo con el id " + id + " no existe"));
+        Prestamo prestamo = prestamoCache.get(id, key -> prestamoRepository.findById(key).orElse(null));
+        if (prestamo == null) {
+            throw new PrestamosException.PrestamosExceptionPrestamoIdNotFound("El préstamo con el id " + id + " no existe");
+        }
+        return prestamo;
     }
 
     /**
-     * retrieves all prestamos by the isbn of the book
+     * Retrieves the prestamos of a book, most recent first. The lookup and the sort run in MongoDB
+     * on the {@code idLibro_fechaPrestamo} index. When page and size are null every prestamo of the book is returned.
      *
-     * @param isbn the isbn of the book
-     * @return the prestamos with the given isbn or throws an exception if the book does not exist
+     * @param isbn   the isbn of the book
+     * @param page   the zero-based page to return, or null for the first one
+     * @param size   the number of prestamos per page, or null to return all of them
+     * @param fields the comma separated properties to return, or null for {@link Prestamo#SUMMARY_FIELDS}
+     * @return the prestamos with the given isbn in the requested page
+     * @throws IllegalArgumentException                            if the page or the size are out of range,
+     *                                                             or a requested property does not exist
+     * @throws PrestamosException.PrestamosExceptionBookIsAvailable if the page has no prestamos
      */
-    public List<Prestamo> getPrestamosByIsbn(String isbn) {
-        List<Prestamo> prestamosFiltrados =
-                getPrestamos().stream()
-                        .filter(p -> p.getIdLibro().equals(isbn))
-                        .toList();
+    public List<PrestamoResumenDTO> getPrestamosByIsbn(String isbn, Integer page, Integer size, String fields) {
+        return resumen(prestamosByIsbn(isbn, pageOf(page, size), projection(fields)));
+    }
+
+    private List<Prestamo> prestamosByIsbn(String isbn, Pageable pageable, Set<String> fields) {
+        List<Prestamo> prestamosFiltrados = prestamoRepository.findProjectedByIdLibro(isbn, pageable, fields);
         if (prestamosFiltrados.isEmpty()) {
             throw new PrestamosException.PrestamosExceptionBookIsAvailable("El libro con el ISBN " + isbn + " no ha sido prestado o no existe");
         }
         return prestamosFiltrados;
     }
 
+    private static Pageable pageOf(Integer page, Integer size) {
+        if (page == null && size == null) {
+            return Pageable.unpaged(BY_FECHA_PRESTAMO_DESC);
+        }
+        int pageNumber = page == null ? 0 : page;
+        int pageSize = size == null ? MAX_PAGE_SIZE : size;
+        if (pageNumber < 0) {
+            throw new IllegalArgumentException("La página no puede ser negativa");
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("El tamaño de página debe estar entre 1 y " + MAX_PAGE_SIZE);
+        }
+        return PageRequest.of(pageNumber, pageSize, BY_FECHA_PRESTAMO_DESC);
+    }
+
     /**
-     * Retrieves all prestamos by the id of the student
+     * Retrieves the prestamos of a student, reading only the requested properties in MongoDB.
      *
-     * @param id the id of the student
-     * @return the prestamos with the given id or throws an exception if the student does not exist
+     * @param id     the id of the student
+     * @param fields the comma separated properties to return, or null for {@link Prestamo#SUMMARY_FIELDS}
+     * @return the prestamos with the given id
+     * @throws IllegalArgumentException                                     if a requested property does not exist
+     * @throws PrestamosException.PrestamosExceptionEstudianteHasNotPrestamo if the student has no prestamos
      */
-    public List<Prestamo> getPrestamosByIdEstudiante(String id) {
-        List<Prestamo> prestamos =  prestamoRepository.findByIdEstudiante(id);
+    public List<PrestamoResumenDTO> getPrestamosByIdEstudiante(String id, String fields) {
+        List<Prestamo> prestamos = prestamoRepository.findProjectedByIdEstudiante(id, projection(fields));
         if (prestamos.isEmpty()) {
             throw new PrestamosException.PrestamosExceptionEstudianteHasNotPrestamo("El estudiante con el id " + id + " no tiene préstamos o no existe.");
         }
-        return prestamos;
+        return resumen(prestamos);
     }
 
     /**
      * Delete a prestamo by its ID if it has not been returned or is not overdue.
+     * The state check and the deletion run as a single conditional command; the prestamo is only
+     * read again when nothing was deleted, to report why.
      *
      * @param id the ID of the prestamo
      * @return the prestamo deleted
      */
     public Prestamo deletePrestamoById(String id) {
+        Prestamo deleted = prestamoRepository.deleteIfActive(id);
+        if (deleted != null) {
+            prestamoCache.invalidate(id);
+            return deleted;
+        }
+        prestamoCache.evict(List.of(id));
         Prestamo prestamo = getPrestamoById(id);
         if (prestamo.getEstado().equals(DEVUELTO)) {
             throw new PrestamosException.PrestamosExceptionStateError("El préstamo ya ha sido devuelto");
         } else if (prestamo.getEstado().equals(VENCIDO)) {
             throw new PrestamosException.PrestamosExceptionStateError("El préstamo está vencido");
-        } else {
-            prestamoRepository.deleteById(prestamo.getId());
-            return prestamo;
         }
+        throw new PrestamosException.PrestamosExceptionStateError("El préstamo no se puede eliminar en estado " + prestamo.getEstado());
     }
 
     /**
-     * Updates the specified Prestamo (loan) with the provided updates.
+     * Updates the specified Prestamo (loan) with the provided updates in a single atomic {@code $set},
+     * without reading the document first. When an expected version is given, the update only applies
+     * if the Prestamo still has that version, so concurrent PATCH requests cannot overwrite each other.
      *
-     * @param id      the ID of the Prestamo to be updated
-     * @param updates a map containing the fields to be updated and their new values
-     * @throws IllegalArgumentException if the Prestamo is in "vencido" or "devuelto" state and the updates do not contain "historial_estado",
-     *                                  or if an invalid attribute is provided in the updates map
+     * @param id              the ID of the Prestamo to be updated
+     * @param updates         a map containing the fields to be updated and their new values
+     * @param expectedVersion the version the client read, or null to update the current version
+     * @throws IllegalArgumentException                                if an invalid attribute is provided in the updates map
+     * @throws PrestamosException.PrestamosExceptionPrestamoIdNotFound if the Prestamo does not exist
+     * @throws PrestamosException.PrestamosExceptionVersionConflict    if the Prestamo no longer has the expected version
      */
-    public void updatePrestamo(String id, Map<String, Object> updates) {
-        Prestamo prestamo = getPrestamoById(id);
+    public void updatePrestamo(String id, Map<String, Object> updates, Long expectedVersion) {
         /*if ((VENCIDO.equals(prestamo.getEstado()) || DEVUELTO.equals(prestamo.getEstado())) && !updates.containsKey("historial_estado")) {
             throw new IllegalArgumentException("No se puede actualizar el préstamo en estado vencido o devuelto, excepto el historial del ejemplar");
         }*/
+        if (updates.isEmpty()) {
+            throw new IllegalArgumentException("No hay atributos para actualizar");
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
         updates.forEach((key, value) -> {
             switch (key) {
                 case "observaciones":
-                    prestamo.setObservaciones((String) value);
+                    fields.put("observaciones", (String) value);
                     break;
                 case "estado":
-                    prestamo.setEstado((String) value);
+                    fields.put("estado", (String) value);
                     break;
                 case "fecha_devolucion":
                     if (value instanceof String) {
                         DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
                         LocalDateTime fechaDevolucion = LocalDateTime.parse((String) value, formatter);
-                        prestamo.setFechaDevolucion(LocalDate.from(fechaDevolucion));
+                        fields.put("fechaDevolucion", LocalDate.from(fechaDevolucion));
                     } else if (value instanceof LocalDateTime) {
-                        prestamo.setFechaDevolucion(LocalDate.from((LocalDateTime) value));
+                        fields.put("fechaDevolucion", LocalDate.from((LocalDateTime) value));
                     } else {
                         throw new IllegalArgumentException("Formato de fecha_devolucion no válido");
                     }
                     break;
                 case "historial_estado":
-                    prestamo.setHistorialEstado((String) value);
+                    fields.put("historialEstado", (String) value);
                     break;
                 default:
                     throw new IllegalArgumentException("Atributo no válido: " + key);
             }
         });
-        prestamoRepository.save(prestamo);
+        boolean updated;
+        try {
+            updated = prestamoRepository.updateFields(id, expectedVersion, fields);
+        } catch (DuplicateKeyException e) {
+            throw activeLoanConflict(e);
+        } catch (RuntimeException e) {
+            // the write may have been applied before it failed
+            prestamoCache.invalidate(id);
+            throw e;
+        }
+        if (!updated) {
+            throw updateFailure(id, expectedVersion);
+        }
+        prestamoCache.invalidate(id);
+    }
+
+    /**
+     * Explains why a conditional write matched no Prestamo. Only runs on the failure path.
+     */
+    private PrestamosException updateFailure(String id, Long expectedVersion) {
+        if (expectedVersion != null && prestamoRepository.existsById(id)) {
+            updateVersionConflicts.increment();
+            return new PrestamosException.PrestamosExceptionVersionConflict(
+                    "El préstamo con el id " + id + " fue modificado por otra petición, la versión " + expectedVersion + " ya no es la actual");
+        }
+        return new PrestamosException.PrestamosExceptionPrestamoIdNotFound("El préstamo con el id " + id + " no existe");
     }
 
+    /**
+     * Returns a prestamo that is lent or overdue, recording the condition of the book and the return date,
+     * with a single conditional {@code findAndModify}. The prestamo is only read again when nothing was
+     * updated, to report why.
+     *
+     * @param prestamoId the ID of the prestamo
+     * @param estado     the condition of the book when it was returned
+     * @return the prestamo after being returned
+     * @throws PrestamosException.PrestamosExceptionPrestamoIdNotFound if the prestamo does not exist
+     * @throws PrestamosException.PrestamosExceptionStateError         if the prestamo was already returned
+     */
     public Prestamo devolverPrestamo(String prestamoId, String estado) {
-        Prestamo prestamo = getPrestamoById(prestamoId);
-        prestamo.setEstado("Devuelto");
-        prestamo.setHistorialEstado(estado);
-        prestamo.setFechaDevolucion(LocalDate.now());
+        Prestamo prestamo = prestamoRepository.markReturned(prestamoId, estado, LocalDate.now());
+        if (prestamo == null) {
+            prestamoCache.evict(List.of(prestamoId));
+            getPrestamoById(prestamoId);
+            throw new PrestamosException.PrestamosExceptionStateError("El préstamo ya ha sido devuelto");
+        }
+        prestamoCache.invalidate(prestamoId);
         /*
         //TODO: Implementar se implementa la peticion a la api de envio de correos
-        prestamoRepository.save(prestamo);
 
         //boolean estadoHistory = getEstadoHistory(prestamo.getIdLibro(), estado);
 
@@ -287,9 +620,158 @@ public class PrestamoService {
         return prestamo;
     }
 
-    public void changeStatusOfLoanExpire(Prestamo prestamo){
-        prestamo.setEstado("Vencido");
-        prestamoRepository.save(prestamo);
+    /**
+     * Returns a batch of prestamos, identified by their IDs or by the books being returned, reporting the outcome
+     * of each one.
+     * <p>
+     * The lent and overdue prestamos are found with one query and returned with one multi-document update.
+     * Only when fewer prestamos were updated than found (a concurrent return or delete), the prestamos returned
+     * today with this batch's condition are read back to report which ones this batch returned. That readback is
+     * best-effort: a prestamo returned concurrently by another request on the same day with the same condition is
+     * reported (and notified) by both. The return notifications are sent asynchronously.
+     *
+     * @param prestamoIds     the IDs of the prestamos to return, may be null
+     * @param libroIds        the IDs of the books whose lent or overdue prestamos are returned, may be null
+     * @param historialEstado the condition of the books when they were returned
+     * @return one result per requested prestamo ID, followed by one per prestamo found through a book ID
+     *         (or a rejection for a book without a lent or overdue prestamo)
+     * @throws IllegalArgumentException if the batch is empty or has more than {@value #MAX_DEVOLUCION_BATCH_SIZE} items
+     */
+    public List<DevolucionResultDTO> devolverPrestamos(List<String> prestamoIds, List<String> libroIds, String historialEstado) {
+        Set<String> ids = prestamoIds == null ? Set.of() : new LinkedHashSet<>(prestamoIds);
+        Set<String> libros = libroIds == null ? Set.of() : new LinkedHashSet<>(libroIds);
+        if (ids.isEmpty() && libros.isEmpty()) {
+            throw new IllegalArgumentException("Debe indicar al menos un préstamo o un libro para devolver");
+        }
+        if (ids.size() + libros.size() > MAX_DEVOLUCION_BATCH_SIZE) {
+            throw new IllegalArgumentException("El lote no puede tener más de " + MAX_DEVOLUCION_BATCH_SIZE + " préstamos o libros");
+        }
+
+        Map<String, Prestamo> candidates = new LinkedHashMap<>();
+        prestamoRepository.findReturnable(ids, libros).forEach(prestamo -> candidates.put(prestamo.getId(), prestamo));
+        Set<String> returned = new HashSet<>();
+        if (!candidates.isEmpty()) {
+            LocalDate fechaDevolucion = LocalDate.now();
+            long modified = prestamoRepository.markReturned(candidates.keySet(), historialEstado, fechaDevolucion);
+            if (modified == candidates.size()) {
+                returned.addAll(candidates.keySet());
+            } else if (modified > 0) {
+                returned.addAll(prestamoRepository.findIdsReturned(candidates.keySet(), historialEstado, fechaDevolucion));
+            }
+            if (!returned.isEmpty()) {
+                prestamoCache.invalidateAll(returned);
+            }
+        }
+
+        List<DevolucionResultDTO> results = new ArrayList<>();
+        Set<String> reported = new HashSet<>();
+        Set<String> missing = new LinkedHashSet<>(ids);
+        missing.removeAll(candidates.keySet());
+        Set<String> existing = new HashSet<>();
+        if (!missing.isEmpty()) {
+            prestamoRepository.findAllById(missing).forEach(prestamo -> existing.add(prestamo.getId()));
+        }
+        for (String id : ids) {
+            reported.add(id);
+            Prestamo prestamo = candidates.get(id);
+            if (prestamo != null) {
+                results.add(devolucionResult(prestamo, returned));
+            } else if (existing.contains(id)) {
+                results.add(devolucionRejected(id, null, "El préstamo ya ha sido devuelto"));
+            } else {
+                results.add(devolucionRejected(id, null, "El préstamo con el id " + id + " no existe"));
+            }
+        }
+        for (String idLibro : libros) {
+            boolean found = false;
+            for (Prestamo prestamo : candidates.values()) {
+                if (idLibro.equals(prestamo.getIdLibro())) {
+                    found = true;
+                    if (reported.add(prestamo.getId())) {
+                        results.add(devolucionResult(prestamo, returned));
+                    }
+                }
+            }
+            if (!found) {
+                results.add(devolucionRejected(null, idLibro, "El libro con el ISBN " + idLibro + " no tiene un préstamo activo"));
+            }
+        }
+
+        List<Prestamo> devueltos = candidates.values().stream()
+                .filter(prestamo -> returned.contains(prestamo.getId()))
+                .toList();
+        if (!devueltos.isEmpty()) {
+            notificationService.notifyDevoluciones(devueltos);
+        }
+        return results;
+    }
+
+    private static DevolucionResultDTO devolucionResult(Prestamo prestamo, Set<String> returned) {
+        if (returned.contains(prestamo.getId())) {
+            return DevolucionResultDTO.builder()
+                    .prestamoId(prestamo.getId())
+                    .idLibro(prestamo.getIdLibro())
+                    .status(DevolucionResultDTO.DEVUELTO)
+                    .build();
+        }
+        return devolucionRejected(prestamo.getId(), prestamo.getIdLibro(), "El préstamo cambió durante la devolución");
+    }
+
+    private static DevolucionResultDTO devolucionRejected(String prestamoId, String idLibro, String error) {
+        return DevolucionResultDTO.builder()
+                .prestamoId(prestamoId)
+                .idLibro(idLibro)
+                .status(DevolucionResultDTO.RECHAZADO)
+                .error(error)
+                .build();
+    }
+
+    /**
+     * Marks the given overdue prestamos as "Vencido" with one conditional multi-document update that re-checks the
+     * state and the return date, so a prestamo returned or extended in between is left alone. Only when fewer
+     * prestamos were updated than given are the ones in "Vencido" read back. That readback is best-effort: a prestamo
+     * expired concurrently by another sweep is reported (and notified) by both, which the cluster leases of
+     * {@link OverdueSweepService} only allow once a lease expires while its holder is still sweeping. The expired
+     * prestamos are evicted from the cache and notified asynchronously. {@link OverdueSweepService} calls it for each
+     * chunk of overdue prestamos.
+     *
+     * @param candidates the overdue prestamos, as read by the caller
+     * @param cutoff     the first return date that is not overdue
+     * @return the prestamos that were marked as overdue
+     */
+    public List<Prestamo> expireOverdue(Collection<Prestamo> candidates, LocalDate cutoff) {
+        Map<String, Prestamo> byId = new LinkedHashMap<>();
+        candidates.forEach(prestamo -> byId.put(prestamo.getId(), prestamo));
+        if (byId.isEmpty()) {
+            return List.of();
+        }
+        long modified = prestamoRepository.markOverdue(byId.keySet(), cutoff);
+        if (modified == 0) {
+            return List.of();
+        }
+        Set<String> expiredIds = modified == byId.size()
+                ? byId.keySet()
+                : prestamoRepository.findIdsWithEstado(byId.keySet(), VENCIDO);
+        prestamoCache.invalidateAll(expiredIds);
+        List<Prestamo> expired = byId.values().stream()
+                .filter(prestamo -> expiredIds.contains(prestamo.getId()))
+                .toList();
+        expired.forEach(prestamo -> prestamo.setEstado(VENCIDO));
+        if (!expired.isEmpty()) {
+            notificationService.notifyVencimientos(expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the first return date that is not overdue on the given date: a Prestamo is overdue once the day after
+     * its return date has ended.
+     *
+     * @param today the date of the sweep
+     * @return the day before {@code today}
+     */
+    public static LocalDate overdueCutoff(LocalDate today) {
+        return today.minusDays(1);
     }
 
     /*
@@ -1,38 +1,64 @@
 package com.bichotas.moduloprestamos.service;
 
-import com.bichotas.moduloprestamos.entity.Prestamo;
-import com.bichotas.moduloprestamos.entity.dto.PrestamoVencidoDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
-import java.util.List;
 
+/**
+ * Scheduled jobs of the service. Each job runs under {@link ClusterLockService} locks, so even when every replica
+ * fires the same schedule, a unit of work runs on a single instance.
+ */
 @Component
 public class TaskScheduledService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskScheduledService.class);
+
+    /**
+     * Keys of the runs of the overdue sweep, so the safety net scans the overdue range again after the midnight run.
+     */
+    static final String MIDNIGHT_RUN = "medianoche";
+    static final String SAFETY_NET_RUN = "respaldo";
+
     @Autowired
-    private PrestamoService prestamoService;
+    private OverdueSweepService overdueSweepService;
 
+    /**
+     * Safety net for the midnight run, for example when every instance was down at midnight, that also expires the
+     * loans that became overdue since then, such as one whose return date was moved into the past.
+     */
     @Scheduled(cron = "0 0 10 * * *")
-    private void changeStatusLoanWhenExpired() {
-        LocalDate today = LocalDate.now();
-        List<Prestamo> prestamos = prestamoService.getPrestamos("Prestado");
-        for (Prestamo prestamo : prestamos) {
-            if (prestamo.getFechaDevolucion().plusDays(1).isBefore(today)) {
-                prestamoService.changeStatusOfLoanExpire(prestamo);
-                PrestamoVencidoDTO prestamoVencido = PrestamoVencidoDTO.builder()
-                        .prestamoId(prestamo.getId())
-                        .userId(prestamo.getIdEstudiante())
-                        .emailGuardian("")
-                        .bookId(prestamo.getIdLibro())
-                        .bookName("")
-                        .fechaInicialPrestamo(prestamo.getFechaPrestamo())
-                        .fechaFinalPrestamo(prestamo.getFechaDevolucion())
-                        .build();
-                //TODO: send email to guardian with prestamoVencido to API Notificaciones
-            }
+    void changeStatusLoanWhenExpired() {
+        if (overdueSweepService.run(LocalDate.now(), SAFETY_NET_RUN) == null) {
+            LOGGER.info("Overdue sweep had no partition left to claim on this instance");
+        }
+    }
+
+    /**
+     * Expires the loans that became overdue at midnight, as soon as the day starts: a return date is a whole day,
+     * so every loan becomes overdue at a midnight.
+     */
+    @Scheduled(cron = "${prestamos.sweep.midnight-cron:0 0 0 * * *}")
+    void expireLoansAtMidnight() {
+        if (overdueSweepService.run(LocalDate.now(), MIDNIGHT_RUN) == null) {
+            LOGGER.info("Overdue sweep had no partition left to claim on this instance");
+        }
+    }
+
+    /**
+     * Resumes the overdue sweep of the day if the instance running it was stopped. The lease of that instance is no
+     * longer extended, so any instance can take the lock over once it expires.
+     */
+    @Scheduled(initialDelayString = "${prestamos.sweep.resume-check:PT5M}", fixedDelayString = "${prestamos.sweep.resume-check:PT5M}")
+    void resumeInterruptedSweep() {
+        try {
+            LocalDate today = LocalDate.now();
+            overdueSweepService.unfinishedRun(today).ifPresent(ejecucion -> overdueSweepService.run(today, ejecucion));
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not resume the overdue sweep: {}", e.getMessage());
         }
     }
 }
@@ -0,0 +1,203 @@
+package com.bichotas.moduloprestamos.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * TokenValidationCache keeps the outcome of recent JWT validations so that repeated requests
+ * carrying the same bearer token do not reach the API Gateway again.
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the token, never by the raw token. Valid tokens are
+ * kept until their {@code exp} claim (capped by a maximum TTL) and invalid tokens only for a short
+ * negative TTL. The claims parsed from the token are memoized with the validation result.
+ * Hit, miss and eviction counts are published as {@code cache.*} metrics.
+ * <p>
+ * Concurrent validations of the same token are coalesced: the first caller runs the validation and
+ * every other caller waits for that single outstanding result instead of issuing its own request.
+ */
+@Component
+public class TokenValidationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenValidationCache.class);
+    private static final String CACHE_NAME = "tokenValidation";
+
+    private final Cache<String, CachedValidation> cache;
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final Duration maxTtl;
+    private final Duration negativeTtl;
+
+    public TokenValidationCache(MeterRegistry meterRegistry,
+                                @Value("${auth.token-cache.max-size:10000}") long maxSize,
+                                @Value("${auth.token-cache.max-ttl:15m}") Duration maxTtl,
+                                @Value("${auth.token-cache.negative-ttl:30s}") Duration negativeTtl) {
+        this.maxTtl = maxTtl;
+        this.negativeTtl = negativeTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new ValidationExpiry())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the cached validation result for the given token, or runs the validator and caches its result.
+     * <p>
+     * If another thread is already validating the same token, this call waits for that validation
+     * and returns its result. If the validator throws, nothing is cached and the exception is propagated
+     * to every waiting caller, so transient gateway failures are not remembered as invalid tokens.
+     *
+     * @param token     the JWT token to validate
+     * @param validator the function that performs the actual validation
+     * @return true if the token is valid, false otherwise
+     */
+    public boolean validate(String token, Predicate<String> validator) {
+        String key = hash(token);
+        CachedValidation cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached.valid();
+        }
+
+        CompletableFuture<Boolean> validation = new CompletableFuture<>();
+        CompletableFuture<Boolean> outstanding = inFlight.putIfAbsent(key, validation);
+        if (outstanding != null) {
+            return await(outstanding);
+        }
+        try {
+            boolean valid = validator.test(token);
+            JwtClaims claims = readClaims(token);
+            Duration ttl = valid ? positiveTtl(claims) : negativeTtl;
+            if (!ttl.isNegative() && !ttl.isZero()) {
+                cache.put(key, new CachedValidation(valid, claims, ttl.toNanos()));
+            }
+            validation.complete(valid);
+            return valid;
+        } catch (RuntimeException | Error ex) {
+            validation.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, validation);
+        }
+    }
+
+    /**
+     * Waits for a validation started by another thread.
+     *
+     * @param outstanding the validation in progress
+     * @return the result of the validation
+     */
+    private static boolean await(CompletableFuture<Boolean> outstanding) {
+        try {
+            return outstanding.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the claims of the given token, reusing the claims memoized with its validation result when available.
+     *
+     * @param token the JWT token
+     * @return the claims of the token
+     * @throws IllegalArgumentException if the token payload cannot be read
+     */
+    public JwtClaims claims(String token) {
+        CachedValidation cached = cache.getIfPresent(hash(token));
+        if (cached != null && cached.claims() != null) {
+            return cached.claims();
+        }
+        return JwtClaimsReader.read(token);
+    }
+
+    /**
+     * Computes how long a valid token may be cached: until its {@code exp} claim, capped by the maximum TTL.
+     *
+     * @param claims the claims of the token, or null if they could not be read
+     * @return the time to live of the cache entry
+     */
+    private Duration positiveTtl(JwtClaims claims) {
+        if (claims == null || claims.expiration() == null) {
+            return maxTtl;
+        }
+        Duration untilExpiration = Duration.between(Instant.now(), Instant.ofEpochSecond(claims.expiration()));
+        return untilExpiration.compareTo(maxTtl) < 0 ? untilExpiration : maxTtl;
+    }
+
+    /**
+     * Reads the claims of the token payload.
+     *
+     * @param token the JWT token
+     * @return the claims, or null if the payload is unreadable
+     */
+    private static JwtClaims readClaims(String token) {
+        try {
+            return JwtClaimsReader.read(token);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.debug("Could not read claims from token: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Hashes the token so that raw credentials are never kept as cache keys.
+     *
+     * @param token the JWT token
+     * @return the Base64 encoded SHA-256 digest of the token
+     */
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private record CachedValidation(boolean valid, JwtClaims claims, long ttlNanos) {
+    }
+
+    /**
+     * Expires every entry after its own TTL, computed when the entry was created.
+     */
+    private static final class ValidationExpiry implements Expiry<String, CachedValidation> {
+
+        @Override
+        public long expireAfterCreate(String key, CachedValidation value, long currentTime) {
+            return value.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedValidation value, long currentTime, long currentDuration) {
+            return value.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedValidation value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
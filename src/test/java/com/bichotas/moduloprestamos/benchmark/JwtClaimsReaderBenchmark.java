@@ -0,0 +1,73 @@
+package com.bichotas.moduloprestamos.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.bichotas.moduloprestamos.service.JwtClaimsReader;
+
+/**
+ * Compares the role extraction previously done in JwtAuthenticationFilter with {@link JwtClaimsReader}.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.bichotas.moduloprestamos.benchmark.JwtClaimsReaderBenchmark}.
+ * Add {@code -prof gc} to the JMH options to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtClaimsReaderBenchmark {
+
+    private static final String ROLE_CLAIM = "\"role\":";
+
+    private String token;
+
+    @Setup
+    public void setUp() {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = "{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"clave-1\"}";
+        String payload = "{\"sub\":\"5f5b3b3b1f1b3b5f5b3b3b1f\",\"name\":\"Bibliotecario\",\"email\":\"bibliotecario@mail.escuelaing.edu.co\","
+                + "\"role\":\"admin\",\"iat\":1731000000,\"exp\":1931000000}";
+        token = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(new byte[256]);
+    }
+
+    @Benchmark
+    public String legacyExtractRole() {
+        String[] splitToken = token.split("\\.");
+        String payload = new String(Base64.getUrlDecoder().decode(splitToken[1]));
+        int startIndex = payload.indexOf(ROLE_CLAIM) + ROLE_CLAIM.length();
+        int endIndex = payload.indexOf('"', startIndex + 1);
+        return payload.substring(startIndex + 1, endIndex).toUpperCase();
+    }
+
+    @Benchmark
+    public String claimsReaderExtractRole() {
+        return JwtClaimsReader.read(token).role().toUpperCase();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtClaimsReaderBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,107 @@
+package com.bichotas.moduloprestamos.benchmark;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.repository.PrestamoRepository;
+import com.bichotas.moduloprestamos.repository.SweepCheckpointRepository;
+import com.bichotas.moduloprestamos.service.ClusterLockService;
+import com.bichotas.moduloprestamos.service.OverdueSweepService;
+import com.bichotas.moduloprestamos.service.PrestamoService;
+
+/**
+ * Measures the overhead of dispatching the overdue sweep to its partitions with a growing number of threads.
+ * <p>
+ * MongoDB is mocked: each chunk blocks for a fixed {@code chunkMillis} instead of running the conditional
+ * multi-document update and the checkpoint write, and the overdue range is read from memory. The results only
+ * show how the dispatch, the chained chunks and the bound on chunks in flight behave when the chunks can overlap;
+ * they say nothing about how a real sweep scales, which depends on how the server handles concurrent updates.
+ * Run with {@code mvn test-compile exec:java
+ * -Dexec.classpathScope=test -Dexec.mainClass=com.bichotas.moduloprestamos.benchmark.OverdueSweepBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class OverdueSweepBenchmark {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 10);
+    private static final int PARTITIONS = 16;
+    private static final int CHUNK_SIZE = 100;
+
+    @Param({"1", "2", "4", "8", "16"})
+    private int parallelism;
+
+    @Param({"20000"})
+    private int overdueLoans;
+
+    @Param({"5"})
+    private long chunkMillis;
+
+    private OverdueSweepService overdueSweepService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Prestamo> overdue = IntStream.range(0, overdueLoans)
+                .mapToObj(i -> Prestamo.builder().id(new ObjectId().toHexString()).fechaDevolucion(TODAY.minusDays(5)).build())
+                .toList();
+        PrestamoRepository prestamoRepository = mock(PrestamoRepository.class);
+        when(prestamoRepository.streamOverdue(any(), anyInt())).thenAnswer(invocation -> overdue.stream());
+        PrestamoService prestamoService = mock(PrestamoService.class);
+        when(prestamoService.expireOverdue(anyCollection(), any())).thenAnswer(invocation -> {
+            Thread.sleep(chunkMillis);
+            return List.copyOf(invocation.<Collection<Prestamo>>getArgument(0));
+        });
+        SweepCheckpointRepository checkpointRepository = mock(SweepCheckpointRepository.class);
+        when(checkpointRepository.findAllById(any())).thenReturn(List.of());
+        when(checkpointRepository.findById(anyString())).thenReturn(Optional.empty());
+        when(checkpointRepository.saveFenced(any())).thenReturn(true);
+        ClusterLockService clusterLockService = mock(ClusterLockService.class);
+        when(clusterLockService.tryLock(any(), any(), any())).thenAnswer(invocation -> Optional.of(new ClusterLockService.Lease(
+                invocation.getArgument(0), 1, Instant.now(), Duration.ofMinutes(10), Duration.ZERO)));
+        when(clusterLockService.extend(any())).thenReturn(true);
+        overdueSweepService = new OverdueSweepService(prestamoRepository, prestamoService, checkpointRepository,
+                clusterLockService, CHUNK_SIZE, PARTITIONS, parallelism, false, 0, Duration.ofMinutes(10), Duration.ZERO);
+    }
+
+    @Benchmark
+    public OverdueSweepService.SweepReport sweep() {
+        return overdueSweepService.run(TODAY, "medianoche");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OverdueSweepBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
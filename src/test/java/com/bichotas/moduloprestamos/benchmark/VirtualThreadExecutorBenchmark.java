@@ -0,0 +1,104 @@
+package com.bichotas.moduloprestamos.benchmark;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Compares how many batches of concurrent blocking requests per second a platform thread pool sized
+ * like Tomcat's default (200 workers) and a virtual thread per task executor complete.
+ * <p>
+ * Each request blocks for {@code blockMillis}, standing in for a call to the API Gateway or MongoDB.
+ * With more concurrent requests than workers, the platform pool queues them while the virtual threads
+ * all wait at the same time. Requires Java 21. Run with {@code mvn test-compile exec:java
+ * -Dexec.classpathScope=test -Dexec.mainClass=com.bichotas.moduloprestamos.benchmark.VirtualThreadExecutorBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadExecutorBenchmark {
+
+    private static final int PLATFORM_WORKERS = 200;
+
+    @Param({"200", "1000", "5000"})
+    private int concurrentRequests;
+
+    @Param({"20"})
+    private long blockMillis;
+
+    private ThreadPoolTaskExecutor platformExecutor;
+    private SimpleAsyncTaskExecutor virtualExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        platformExecutor = new ThreadPoolTaskExecutor();
+        platformExecutor.setCorePoolSize(PLATFORM_WORKERS);
+        platformExecutor.setMaxPoolSize(PLATFORM_WORKERS);
+        platformExecutor.setThreadNamePrefix("platform-");
+        platformExecutor.initialize();
+
+        virtualExecutor = new SimpleAsyncTaskExecutor("virtual-");
+        virtualExecutor.setVirtualThreads(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        platformExecutor.shutdown();
+        virtualExecutor.close();
+    }
+
+    @Benchmark
+    public void platformThreads() {
+        runBlockingRequests(platformExecutor);
+    }
+
+    @Benchmark
+    public void virtualThreads() {
+        runBlockingRequests(virtualExecutor);
+    }
+
+    private void runBlockingRequests(Executor executor) {
+        CompletableFuture<?>[] requests = new CompletableFuture<?>[concurrentRequests];
+        for (int i = 0; i < concurrentRequests; i++) {
+            requests[i] = CompletableFuture.runAsync(this::blockingCall, executor);
+        }
+        CompletableFuture.allOf(requests).join();
+    }
+
+    private void blockingCall() {
+        try {
+            Thread.sleep(blockMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VirtualThreadExecutorBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,99 @@
+package com.bichotas.moduloprestamos.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.Configurable;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ApiGatewayClientConfigTest {
+
+    private static final HttpRoute ROUTE = new HttpRoute(new HttpHost("https", "gateway.example", 443));
+
+    private final ApiGatewayClientConfig config = new ApiGatewayClientConfig();
+    private SimpleMeterRegistry meterRegistry;
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        connectionManager = config.apiGatewayConnectionManager(meterRegistry, Duration.ofSeconds(2), Duration.ofSeconds(3), 5, 2, Duration.ofMinutes(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionManager.close();
+    }
+
+    private double poolGauge(String name, String... tags) {
+        return meterRegistry.get("httpcomponents.httpclient.pool." + name)
+                .tag("httpclient", "apiGateway")
+                .tags(tags)
+                .gauge()
+                .value();
+    }
+
+    @Test
+    void shouldApplyPoolLimits() {
+        assertEquals(5, connectionManager.getMaxTotal());
+        assertEquals(2, connectionManager.getDefaultMaxPerRoute());
+        assertEquals(5, poolGauge("total.max"));
+        assertEquals(2, poolGauge("route.max.default"));
+    }
+
+    @Test
+    void shouldReportLeasedAndPendingConnections() throws Exception {
+        List<ConnectionEndpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            endpoints.add(connectionManager.lease("lease-" + i, ROUTE, Timeout.ofSeconds(1), null).get(Timeout.ofSeconds(1)));
+        }
+        LeaseRequest overLimit = connectionManager.lease("over-limit", ROUTE, Timeout.ofSeconds(1), null);
+
+        assertEquals(2, poolGauge("total.connections", "state", "leased"));
+        assertEquals(0, poolGauge("total.connections", "state", "available"));
+        assertEquals(1, poolGauge("total.pending"));
+
+        overLimit.cancel();
+        endpoints.forEach(endpoint -> connectionManager.release(endpoint, null, TimeValue.ZERO_MILLISECONDS));
+
+        assertEquals(0, poolGauge("total.connections", "state", "leased"));
+        assertEquals(0, poolGauge("total.pending"));
+    }
+
+    @Test
+    void shouldUseConfiguredKeepAliveWhenGatewayDoesNotAnnounceOne() throws Exception {
+        HttpComponentsClientHttpRequestFactory requestFactory = (HttpComponentsClientHttpRequestFactory) config.apiGatewayRequestFactory(
+                connectionManager, Duration.ofSeconds(45), Duration.ofSeconds(30), Duration.ofMillis(500));
+
+        try {
+            Configurable httpClient = (Configurable) requestFactory.getHttpClient();
+            assertEquals(TimeValue.ofSeconds(45), httpClient.getConfig().getConnectionKeepAlive());
+        } finally {
+            requestFactory.destroy();
+        }
+    }
+
+    @Test
+    void shouldBindBreakerAndBulkheadMeters() {
+        config.apiGatewayCircuitBreaker(meterRegistry, 20, 50, Duration.ofSeconds(2), Duration.ofSeconds(10), 3);
+        config.apiGatewayBulkhead(meterRegistry, 20);
+
+        assertNotNull(meterRegistry.find("resilience4j.circuitbreaker.state").tag("name", "apiGateway").gauge());
+        assertEquals(20, meterRegistry.get("resilience4j.bulkhead.max.allowed.concurrent.calls").tag("name", "apiGateway").gauge().value());
+    }
+}
@@ -0,0 +1,113 @@
+package com.bichotas.moduloprestamos.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+
+class MongoIndexReconcilerTest {
+
+    private MongoTemplate mongoTemplate;
+    private IndexOperations indexOperations;
+    private AggregateIterable<Document> indexStats;
+    private MongoIndexReconciler reconciler;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        indexOperations = mock(IndexOperations.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        indexStats = mock(AggregateIterable.class);
+        when(mongoTemplate.indexOps(Prestamo.class)).thenReturn(indexOperations);
+        when(mongoTemplate.getCollection("prestamo")).thenReturn(collection);
+        when(collection.aggregate(anyList())).thenReturn(indexStats);
+
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setInitialEntitySet(Set.of(Prestamo.class));
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        mappingContext.initialize();
+        reconciler = new MongoIndexReconciler(mongoTemplate, mappingContext);
+    }
+
+    private static IndexInfo index(String name, String field) {
+        return new IndexInfo(List.of(IndexField.create(field, Sort.Direction.ASC)), name, false, false, "");
+    }
+
+    private void indexStats(Document... stats) {
+        when(indexStats.into(anyCollection())).thenAnswer(invocation -> {
+            Collection<Document> target = invocation.getArgument(0);
+            target.addAll(List.of(stats));
+            return target;
+        });
+    }
+
+    @Test
+    void shouldCreateMissingDeclaredIndexes() {
+        when(indexOperations.getIndexInfo()).thenReturn(List.of(
+                index("_id_", "_id"),
+                index("idLibro_fechaPrestamo", "idLibro")));
+        indexStats();
+
+        MongoIndexReconciler.IndexReport report = reconciler.reconcile().get(0);
+
+        assertEquals("prestamo", report.collection());
+        assertEquals(Set.of("estado_fechaDevolucion", "idEstudiante_estado", "estado_id",
+                "idEstudiante_prestamoActivo", "idLibro_prestamoActivo"), Set.copyOf(report.created()));
+        ArgumentCaptor<IndexDefinition> definitions = ArgumentCaptor.forClass(IndexDefinition.class);
+        verify(indexOperations, times(6)).ensureIndex(definitions.capture());
+        assertTrue(definitions.getAllValues().stream()
+                .anyMatch(definition -> definition.getIndexKeys().equals(new Document("estado", 1).append("fechaDevolucion", 1))));
+        IndexDefinition activeLoanPerStudent = definitions.getAllValues().stream()
+                .filter(definition -> "idEstudiante_prestamoActivo".equals(definition.getIndexOptions().getString("name")))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(Boolean.TRUE, activeLoanPerStudent.getIndexOptions().get("unique"));
+        assertEquals(new Document("estado", "Prestado"), activeLoanPerStudent.getIndexOptions().get("partialFilterExpression"));
+        assertTrue(report.undeclared().isEmpty());
+    }
+
+    @Test
+    void shouldReportUndeclaredAndUnusedIndexes() {
+        when(indexOperations.getIndexInfo()).thenReturn(List.of(
+                index("_id_", "_id"),
+                index("estado_fechaDevolucion", "estado"),
+                index("idEstudiante_estado", "idEstudiante"),
+                index("idLibro_fechaPrestamo", "idLibro"),
+                index("estado_id", "estado"),
+                index("idEstudiante_prestamoActivo", "idEstudiante"),
+                index("idLibro_prestamoActivo", "idLibro"),
+                index("creadoBy_1", "creadoBy")));
+        indexStats(
+                new Document("name", "_id_").append("accesses", new Document("ops", 0L).append("since", new Date())),
+                new Document("name", "estado_fechaDevolucion").append("accesses", new Document("ops", 42L).append("since", new Date())),
+                new Document("name", "creadoBy_1").append("accesses", new Document("ops", 0L).append("since", new Date())));
+
+        MongoIndexReconciler.IndexReport report = reconciler.reconcile().get(0);
+
+        assertTrue(report.created().isEmpty());
+        assertEquals(List.of("creadoBy_1"), report.undeclared());
+        assertEquals(List.of("creadoBy_1"), report.unused());
+    }
+}
@@ -1,21 +1,36 @@
 package com.bichotas.moduloprestamos.controller;
 
 import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.dto.BulkResultDTO;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionLoteDTO;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionResultDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoPageDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoResumenDTO;
 import com.bichotas.moduloprestamos.exception.PrestamosException;
 import com.bichotas.moduloprestamos.service.PrestamoService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 class PrestamoControllerTest {
@@ -23,6 +38,10 @@ class PrestamoControllerTest {
     @Mock
     private PrestamoService prestamoService;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
     @InjectMocks
     private PrestamoController prestamoController;
 
@@ -33,22 +52,22 @@ class PrestamoControllerTest {
 
     @Test
     void shouldReturnAllPrestamos() {
-        Prestamo prestamo1 = new Prestamo();
+        PrestamoResumenDTO prestamo1 = new PrestamoResumenDTO();
         prestamo1.setIdEstudiante("123");
         prestamo1.setIdLibro("456");
         prestamo1.setEstado("Prestado");
-        Prestamo prestamo2 = new Prestamo();
+        PrestamoResumenDTO prestamo2 = new PrestamoResumenDTO();
         prestamo2.setIdEstudiante("789");
         prestamo2.setIdLibro("101");
         prestamo2.setEstado("Prestado");
 
-        List<Prestamo> prestamos = new ArrayList<>();
+        List<PrestamoResumenDTO> prestamos = new ArrayList<>();
         prestamos.add(prestamo1);
         prestamos.add(prestamo2);
 
-        when(prestamoService.getPrestamos(null)).thenReturn(prestamos);
+        when(prestamoService.getPrestamos(null, null)).thenReturn(prestamos);
 
-        ResponseEntity<?> response = prestamoController.getPrestamos(null);
+        ResponseEntity<?> response = prestamoController.getPrestamos(null, null, null, null);
 
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("prestamos", prestamos), response.getBody());
@@ -74,43 +93,65 @@ class PrestamoControllerTest {
 
     @Test
     void shouldReturnPrestamosByIsbn() {
-        Prestamo prestamo1 = new Prestamo();
+        PrestamoResumenDTO prestamo1 = new PrestamoResumenDTO();
         prestamo1.setIdEstudiante("123");
         prestamo1.setIdLibro("456");
         prestamo1.setEstado("Prestado");
 
-        Prestamo prestamo2 = new Prestamo();
+        PrestamoResumenDTO prestamo2 = new PrestamoResumenDTO();
         prestamo2.setIdEstudiante("789");
         prestamo2.setIdLibro("456");
         prestamo2.setEstado("Devuelto");
 
-        List<Prestamo> prestamos = List.of(prestamo1, prestamo2);
+        List<PrestamoResumenDTO> prestamos = List.of(prestamo1, prestamo2);
 
-        when(prestamoService.getPrestamosByIsbn("456")).thenReturn(prestamos);
+        when(prestamoService.getPrestamosByIsbn("456", null, null, null)).thenReturn(prestamos);
 
-        ResponseEntity<?> response = prestamoController.getPrestamosByIsbn("456");
+        ResponseEntity<?> response = prestamoController.getPrestamosByIsbn("456", null, null, null);
 
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("prestamos", prestamos), response.getBody());
     }
 
+    @Test
+    void shouldReturnBadRequestWhenIsbnPageIsInvalid() {
+        when(prestamoService.getPrestamosByIsbn("456", 0, 500, null))
+                .thenThrow(new IllegalArgumentException("El tamaño de página debe estar entre 1 y 100"));
+
+        ResponseEntity<?> response = prestamoController.getPrestamosByIsbn("456", 0, 500, null);
+
+        assertEquals(400, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "El tamaño de página debe estar entre 1 y 100"), response.getBody());
+    }
+
+    @Test
+    void shouldReturnBadRequestWhenFieldsAreInvalid() {
+        when(prestamoService.getPrestamosByIdEstudiante("123", "clave"))
+                .thenThrow(new IllegalArgumentException("Campo no válido: clave"));
+
+        ResponseEntity<?> response = prestamoController.getPrestamosByEstudiante("123", "clave");
+
+        assertEquals(400, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "Campo no válido: clave"), response.getBody());
+    }
+
     @Test
     void shouldReturnPrestamosByEstudianteId() {
-        Prestamo prestamo1 = new Prestamo();
+        PrestamoResumenDTO prestamo1 = new PrestamoResumenDTO();
         prestamo1.setIdEstudiante("123");
         prestamo1.setIdLibro("456");
         prestamo1.setEstado("Prestado");
 
-        Prestamo prestamo2 = new Prestamo();
+        PrestamoResumenDTO prestamo2 = new PrestamoResumenDTO();
         prestamo2.setIdEstudiante("123");
         prestamo2.setIdLibro("789");
         prestamo2.setEstado("Devuelto");
 
-        List<Prestamo> prestamos = List.of(prestamo1, prestamo2);
+        List<PrestamoResumenDTO> prestamos = List.of(prestamo1, prestamo2);
 
-        when(prestamoService.getPrestamosByIdEstudiante("123")).thenReturn(prestamos);
+        when(prestamoService.getPrestamosByIdEstudiante("123", null)).thenReturn(prestamos);
 
-        ResponseEntity<?> response = prestamoController.getPrestamosByEstudiante("123");
+        ResponseEntity<?> response = prestamoController.getPrestamosByEstudiante("123", null);
 
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("prestamos", prestamos), response.getBody());
@@ -121,9 +162,9 @@ class PrestamoControllerTest {
     void shouldUpdatePrestamoById() {
         Map<String, Object> updates = Map.of("estado", "Devuelto");
 
-        doNothing().when(prestamoService).updatePrestamo("1", updates);
+        doNothing().when(prestamoService).updatePrestamo("1", updates, null);
 
-        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates);
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, null);
 
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("message", "Prestamo actualizado correctamente"), response.getBody());
@@ -133,9 +174,9 @@ class PrestamoControllerTest {
     void shouldReturnNotFoundWhenUpdatingNonExistentPrestamo() {
         Map<String, Object> updates = Map.of("estado", "Devuelto");
 
-        doThrow(new NoSuchElementException("Prestamo not found")).when(prestamoService).updatePrestamo("1", updates);
+        doThrow(new NoSuchElementException("Prestamo not found")).when(prestamoService).updatePrestamo("1", updates, null);
 
-        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates);
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, null);
 
         assertEquals(404, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("error", "Prestamo not found"), response.getBody());
@@ -145,9 +186,9 @@ class PrestamoControllerTest {
     void shouldUpdatePrestamoSuccessfully() {
         Map<String, Object> updates = Map.of("estado", "Devuelto");
 
-        doNothing().when(prestamoService).updatePrestamo("1", updates);
+        doNothing().when(prestamoService).updatePrestamo("1", updates, null);
 
-        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates);
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, null);
 
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("message", "Prestamo actualizado correctamente"), response.getBody());
@@ -157,9 +198,9 @@ class PrestamoControllerTest {
     void shouldReturnBadRequestForInvalidUpdate() {
         Map<String, Object> updates = Map.of("estado", "Devuelto");
 
-        doThrow(new IllegalArgumentException("Invalid update")).when(prestamoService).updatePrestamo("1", updates);
+        doThrow(new IllegalArgumentException("Invalid update")).when(prestamoService).updatePrestamo("1", updates, null);
 
-        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates);
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, null);
 
         assertEquals(400, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("error", "Invalid update"), response.getBody());
@@ -169,21 +210,34 @@ class PrestamoControllerTest {
     void shouldReturnNotFoundForNonExistentPrestamo() {
         Map<String, Object> updates = Map.of("estado", "Devuelto");
 
-        doThrow(new NoSuchElementException("Prestamo not found")).when(prestamoService).updatePrestamo("1", updates);
+        doThrow(new NoSuchElementException("Prestamo not found")).when(prestamoService).updatePrestamo("1", updates, null);
 
-        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates);
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, null);
 
         assertEquals(404, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("error", "Prestamo not found"), response.getBody());
     }
 
+    @Test
+    void shouldReturnConflictWhenVersionChanged() {
+        Map<String, Object> updates = Map.of("observaciones", "Nueva observación");
+
+        doThrow(new PrestamosException.PrestamosExceptionVersionConflict("El préstamo fue modificado por otra petición"))
+                .when(prestamoService).updatePrestamo("1", updates, 3L);
+
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, 3L);
+
+        assertEquals(409, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "El préstamo fue modificado por otra petición"), response.getBody());
+    }
+
     @Test
     void shouldReturnInternalServerErrorForUnexpectedException() {
         Map<String, Object> updates = Map.of("estado", "Devuelto");
 
-        doThrow(new RuntimeException("Unexpected error")).when(prestamoService).updatePrestamo("1", updates);
+        doThrow(new RuntimeException("Unexpected error")).when(prestamoService).updatePrestamo("1", updates, null);
 
-        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates);
+        ResponseEntity<?> response = prestamoController.updatePrestamo("1", updates, null);
 
         assertEquals(500, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("error", "Unexpected error"), response.getBody());
@@ -191,14 +245,88 @@ class PrestamoControllerTest {
 
     @Test
     void shouldReturnEmptyListWhenNoPrestamos() {
-        when(prestamoService.getPrestamos(null)).thenReturn(Collections.emptyList());
+        when(prestamoService.getPrestamos(null, null)).thenReturn(Collections.emptyList());
 
-        ResponseEntity<?> response = prestamoController.getPrestamos(null);
+        ResponseEntity<?> response = prestamoController.getPrestamos(null, null, null, null);
 
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("prestamos", Collections.emptyList()), response.getBody());
     }
 
+    @Test
+    void shouldReturnPageWhenLimitIsGiven() {
+        PrestamoPageDTO page = PrestamoPageDTO.builder()
+                .prestamos(List.of(new PrestamoResumenDTO()))
+                .nextCursor("NjQ3NTlmYTJlZGJkZWUxYTJjN2I0ZTFm")
+                .build();
+        when(prestamoService.getPrestamosPage("Prestado", 1, null, null)).thenReturn(page);
+
+        ResponseEntity<?> response = prestamoController.getPrestamos("Prestado", 1, null, null);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(page, response.getBody());
+        verify(prestamoService, never()).getPrestamos(any(), any());
+    }
+
+    @Test
+    void shouldOmitUnreadPropertiesOnlyFromListResponses() throws Exception {
+        Prestamo prestamo = Prestamo.builder().id("1").idEstudiante("123").estado("Prestado").build();
+        when(prestamoService.getPrestamos(null, null)).thenReturn(List.of(PrestamoResumenDTO.of(prestamo)));
+        when(prestamoService.getPrestamoById("1")).thenReturn(prestamo);
+
+        String list = objectMapper.writeValueAsString(prestamoController.getPrestamos(null, null, null, null).getBody());
+        String single = objectMapper.writeValueAsString(prestamoController.getPrestamoById("1").getBody());
+
+        assertEquals("{\"prestamos\":[{\"id\":\"1\",\"idEstudiante\":\"123\",\"estado\":\"Prestado\"}]}", list);
+        assertTrue(single.contains("\"observaciones\":null"));
+    }
+
+    @Test
+    void shouldReturnBadRequestWhenCursorIsInvalid() {
+        when(prestamoService.getPrestamosPage(null, null, "%%", null))
+                .thenThrow(new IllegalArgumentException("El cursor no es válido"));
+
+        ResponseEntity<?> response = prestamoController.getPrestamos(null, null, "%%", null);
+
+        assertEquals(400, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "El cursor no es válido"), response.getBody());
+    }
+
+    @Test
+    void shouldExportPrestamosAsNdjson() throws Exception {
+        Prestamo prestamo1 = Prestamo.builder().id("1").idLibro("456").estado("Prestado").fechaPrestamo(LocalDate.of(2024, 11, 19)).build();
+        Prestamo prestamo2 = Prestamo.builder().id("2").idLibro("789").estado("Prestado").build();
+        AtomicBoolean closed = new AtomicBoolean();
+        when(prestamoService.streamPrestamos("Prestado", null, null))
+                .thenReturn(Stream.of(prestamo1, prestamo2).onClose(() -> closed.set(true)));
+
+        ResponseEntity<?> response = prestamoController.exportPrestamos("Prestado", null, null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(output);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(MediaType.APPLICATION_NDJSON, response.getHeaders().getContentType());
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("1", objectMapper.readTree(lines[0]).get("id").asText());
+        assertEquals("2024-11-19", objectMapper.readTree(lines[0]).get("fechaPrestamo").asText());
+        assertEquals("789", objectMapper.readTree(lines[1]).get("idLibro").asText());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void shouldReturnBadRequestWhenExportFiltersAreInvalid() {
+        LocalDate desde = LocalDate.of(2025, 1, 2);
+        LocalDate hasta = LocalDate.of(2025, 1, 1);
+        when(prestamoService.streamPrestamos(null, desde, hasta))
+                .thenThrow(new PrestamosException.PrestamosExceptionTimeError("La fecha desde no puede ser después de la fecha hasta"));
+
+        ResponseEntity<?> response = prestamoController.exportPrestamos(null, desde, hasta);
+
+        assertEquals(400, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "La fecha desde no puede ser después de la fecha hasta"), response.getBody());
+    }
+
     @Test
     void shouldAddPrestamo() {
         Prestamo prestamo = new Prestamo();
@@ -214,6 +342,42 @@ class PrestamoControllerTest {
         assertEquals(Collections.singletonMap("prestamo", prestamo), response.getBody());
     }
 
+    @Test
+    void shouldCreatePrestamosInBulk() {
+        List<Prestamo> prestamos = List.of(new Prestamo(), new Prestamo());
+        List<BulkResultDTO> resultados = List.of(
+                BulkResultDTO.builder().index(0).id("1").status(BulkResultDTO.CREADO).build(),
+                BulkResultDTO.builder().index(1).status(BulkResultDTO.RECHAZADO).error("El libro ya tiene un préstamo activo").build());
+        when(prestamoService.createPrestamos(prestamos)).thenReturn(resultados);
+
+        ResponseEntity<?> response = prestamoController.createPrestamos(prestamos);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("resultados", resultados), response.getBody());
+    }
+
+    @Test
+    void shouldReturnBadRequestWhenBulkIsEmpty() {
+        when(prestamoService.createPrestamos(List.of())).thenThrow(new IllegalArgumentException("El lote de préstamos no puede estar vacío"));
+
+        ResponseEntity<?> response = prestamoController.createPrestamos(List.of());
+
+        assertEquals(400, response.getStatusCodeValue());
+    }
+
+    @Test
+    void shouldReturnPrestamosInBatch() {
+        DevolucionLoteDTO devolucion = DevolucionLoteDTO.builder().prestamoIds(List.of("p1")).historialEstado("Buen estado").build();
+        List<DevolucionResultDTO> resultados = List.of(
+                DevolucionResultDTO.builder().prestamoId("p1").status(DevolucionResultDTO.DEVUELTO).build());
+        when(prestamoService.devolverPrestamos(List.of("p1"), null, "Buen estado")).thenReturn(resultados);
+
+        ResponseEntity<?> response = prestamoController.devolverPrestamos(devolucion);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("resultados", resultados), response.getBody());
+    }
+
     @Test
     void shouldReturnNotFoundWhenPrestamoNotFound() {
         when(prestamoService.getPrestamoById("999")).thenReturn(null);
@@ -226,9 +390,9 @@ class PrestamoControllerTest {
 
     @Test
     void shouldReturnErrorWhenGetAllPrestamos() {
-        when(prestamoService.getPrestamos("das"))
+        when(prestamoService.getPrestamos("das", null))
                 .thenThrow(new PrestamosException.PrestamosExceptionStateError("El estado solo puede ser Prestado, Vencido o Devuelto"));
-        ResponseEntity<?> response = prestamoController.getPrestamos("das");
+        ResponseEntity<?> response = prestamoController.getPrestamos("das", null, null, null);
         assertEquals(400, response.getStatusCodeValue());
         assertEquals(Collections.singletonMap("error", "El estado solo puede ser Prestado, Vencido o Devuelto"), response.getBody());
     }
@@ -311,6 +475,28 @@ class PrestamoControllerTest {
         assertEquals(Collections.singletonMap("error", "Prestamo no encontrado"), response.getBody());
     }
 
+    @Test
+    void shouldReturnConflictWhenPrestamoWasAlreadyReturned() {
+        doThrow(new PrestamosException.PrestamosExceptionStateError("El préstamo ya ha sido devuelto"))
+                .when(prestamoService).devolverPrestamo("1", "Entregado");
+
+        ResponseEntity<?> response = prestamoController.devolverPrestamo("1", "Entregado");
+
+        assertEquals(409, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "El préstamo ya ha sido devuelto"), response.getBody());
+    }
+
+    @Test
+    void shouldReturnNotFoundWhenReturnedPrestamoIdIsUnknown() {
+        doThrow(new PrestamosException.PrestamosExceptionPrestamoIdNotFound("El préstamo con el id 999 no existe"))
+                .when(prestamoService).devolverPrestamo("999", "Entregado");
+
+        ResponseEntity<?> response = prestamoController.devolverPrestamo("999", "Entregado");
+
+        assertEquals(404, response.getStatusCodeValue());
+        assertEquals(Collections.singletonMap("error", "El préstamo con el id 999 no existe"), response.getBody());
+    }
+
     @Test
     void shouldReturnInternalServerErrorForUnexpectedExceptions() {
         String prestamoId = "123";
@@ -1,5 +1,6 @@
 package com.bichotas.moduloprestamos.entity;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDate;
@@ -25,4 +26,15 @@ class PrestamoTest {
         assertEquals("admin", prestamo.getCreadoBy());
     }
 
+    @Test
+    void shouldIgnoreVersionInRequestBodyButReturnIt() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        Prestamo prestamo = objectMapper.readValue("{\"idEstudiante\":\"123\",\"version\":7}", Prestamo.class);
+        assertNull(prestamo.getVersion());
+
+        prestamo.setVersion(2L);
+        assertTrue(objectMapper.writeValueAsString(prestamo).contains("\"version\":2"));
+    }
+
 }
\ No newline at end of file
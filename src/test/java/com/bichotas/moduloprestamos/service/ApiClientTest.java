@@ -0,0 +1,140 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.hamcrest.Matchers.endsWith;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseCreator;
+import org.springframework.web.client.RestClient;
+
+import com.bichotas.moduloprestamos.config.ApiGatewayClientConfig;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ApiClientTest {
+
+    private static final String VALID_BODY = "{\"statusCode\":\"200\"}";
+
+    private MockRestServiceServer apiGateway;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+    private ApiClient apiClient;
+
+    @BeforeEach
+    void setUp() {
+        RestClient.Builder builder = RestClient.builder();
+        apiGateway = MockRestServiceServer.bindTo(builder).build();
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ApiGatewayClientConfig config = new ApiGatewayClientConfig();
+        circuitBreaker = config.apiGatewayCircuitBreaker(meterRegistry, 4, 50, Duration.ofSeconds(2), Duration.ofMinutes(1), 2);
+        bulkhead = config.apiGatewayBulkhead(meterRegistry, 1);
+        TokenValidationCache tokenValidationCache = new TokenValidationCache(meterRegistry, 100, Duration.ofMinutes(15), Duration.ofSeconds(30));
+
+        apiClient = new ApiClient(builder.build(), tokenValidationCache, circuitBreaker, bulkhead);
+    }
+
+    private void expectValidation(ResponseCreator response) {
+        apiGateway.expect(once(), requestTo(endsWith("auth/session"))).andRespond(response);
+    }
+
+    @Test
+    void shouldValidateTokenAndCacheTheResult() {
+        expectValidation(withSuccess(VALID_BODY, MediaType.APPLICATION_JSON));
+
+        assertTrue(apiClient.validateToken("token"));
+        assertTrue(apiClient.validateToken("token"));
+
+        apiGateway.verify();
+    }
+
+    @Test
+    void shouldCacheTokenRejectedByTheGateway() {
+        expectValidation(withStatus(HttpStatus.UNAUTHORIZED));
+
+        assertFalse(apiClient.validateToken("token"));
+        assertFalse(apiClient.validateToken("token"));
+
+        apiGateway.verify();
+        assertEquals(0, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+    @Test
+    void shouldNotCallTheGatewayWhileTheBreakerIsOpen() {
+        circuitBreaker.transitionToOpenState();
+
+        assertFalse(apiClient.validateToken("token"));
+
+        apiGateway.verify();
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfNotPermittedCalls());
+    }
+
+    @Test
+    void shouldNotCacheTokenRejectedByTheOpenBreaker() {
+        circuitBreaker.transitionToOpenState();
+        assertFalse(apiClient.validateToken("token"));
+
+        circuitBreaker.transitionToClosedState();
+        expectValidation(withSuccess(VALID_BODY, MediaType.APPLICATION_JSON));
+
+        assertTrue(apiClient.validateToken("token"));
+        apiGateway.verify();
+    }
+
+    @Test
+    void shouldNotCacheTokenRejectedByTheFullBulkhead() {
+        assertTrue(bulkhead.tryAcquirePermission());
+        assertFalse(apiClient.validateToken("token"));
+
+        bulkhead.onComplete();
+        expectValidation(withSuccess(VALID_BODY, MediaType.APPLICATION_JSON));
+
+        assertTrue(apiClient.validateToken("token"));
+        apiGateway.verify();
+    }
+
+    @Test
+    void shouldCountThrottlingAsFailureWithoutCachingTheToken() {
+        expectValidation(withStatus(HttpStatus.TOO_MANY_REQUESTS));
+        expectValidation(withSuccess(VALID_BODY, MediaType.APPLICATION_JSON));
+
+        assertFalse(apiClient.validateToken("token"));
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+
+        assertTrue(apiClient.validateToken("token"));
+        apiGateway.verify();
+    }
+
+    @Test
+    void shouldCloseTheBreakerWhenHalfOpenProbesSucceed() {
+        expectValidation(withServerError());
+        expectValidation(withServerError());
+        expectValidation(withSuccess(VALID_BODY, MediaType.APPLICATION_JSON));
+        expectValidation(withSuccess(VALID_BODY, MediaType.APPLICATION_JSON));
+
+        assertFalse(apiClient.validateToken("token-1"));
+        assertFalse(apiClient.validateToken("token-2"));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        circuitBreaker.transitionToHalfOpenState();
+
+        assertTrue(apiClient.validateToken("token-1"));
+        assertTrue(apiClient.validateToken("token-2"));
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        apiGateway.verify();
+    }
+}
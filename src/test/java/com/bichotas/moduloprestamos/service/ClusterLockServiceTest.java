@@ -0,0 +1,116 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.bichotas.moduloprestamos.entity.SchedulerLock;
+import com.mongodb.client.result.UpdateResult;
+
+class ClusterLockServiceTest {
+
+    private static final Duration AT_MOST = Duration.ofMinutes(10);
+    private static final Duration AT_LEAST = Duration.ofMinutes(5);
+
+    private MongoTemplate mongoTemplate;
+    private ClusterLockService clusterLockService;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        clusterLockService = new ClusterLockService(mongoTemplate);
+    }
+
+    private void lockAcquiredWithToken(long token) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SchedulerLock.class)))
+                .thenReturn(SchedulerLock.builder().id("job").token(token).build());
+    }
+
+    @Test
+    void shouldAcquireExpiredLockWithAnAtomicUpsert() {
+        lockAcquiredWithToken(4);
+
+        Optional<ClusterLockService.Lease> lease = clusterLockService.tryLock("job", AT_MOST, AT_LEAST);
+
+        assertTrue(lease.isPresent());
+        assertEquals(4, lease.get().token());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), options.capture(), eq(SchedulerLock.class));
+        assertEquals("job", query.getValue().getQueryObject().get("_id"));
+        assertTrue(query.getValue().getQueryObject().get("bloqueadoHasta", Document.class).containsKey("$lte"));
+        assertEquals(new Document("token", 1), update.getValue().getUpdateObject().get("$inc"));
+        assertTrue(options.getValue().isUpsert());
+        assertTrue(options.getValue().isReturnNew());
+    }
+
+    @Test
+    void shouldNotAcquireLockHeldByAnotherInstance() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SchedulerLock.class)))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+        AtomicLong ran = new AtomicLong();
+
+        assertFalse(clusterLockService.runLocked("job", AT_MOST, AT_LEAST, lease -> ran.incrementAndGet()));
+
+        assertEquals(0, ran.get());
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class));
+    }
+
+    @Test
+    void shouldKeepLockForAtLeastTheMinimumWhenReleasing() {
+        lockAcquiredWithToken(9);
+        AtomicLong token = new AtomicLong();
+
+        assertTrue(clusterLockService.runLocked("job", AT_MOST, AT_LEAST, lease -> token.set(lease.token())));
+
+        assertEquals(9, token.get());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(SchedulerLock.class));
+        assertEquals(9L, query.getValue().getQueryObject().get("token"));
+        Instant bloqueadoHasta = update.getValue().getUpdateObject().get("$set", Document.class).get("bloqueadoHasta", Instant.class);
+        assertTrue(bloqueadoHasta.isAfter(Instant.now().plus(AT_LEAST).minusSeconds(5)));
+    }
+
+    @Test
+    void shouldReleaseLockWhenTaskFails() {
+        lockAcquiredWithToken(2);
+
+        assertThrows(IllegalStateException.class, () -> clusterLockService.runLocked("job", AT_MOST, Duration.ZERO, lease -> {
+            throw new IllegalStateException("fallo");
+        }));
+
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class));
+    }
+
+    @Test
+    void shouldNotExtendLeaseTakenOverByAnotherInstance() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertFalse(clusterLockService.extend(new ClusterLockService.Lease("job", 3, Instant.now(), AT_MOST, AT_LEAST)));
+    }
+
+    @Test
+    void shouldRejectMinimumLongerThanMaximum() {
+        assertThrows(IllegalArgumentException.class, () -> clusterLockService.tryLock("job", AT_LEAST, AT_MOST));
+    }
+}
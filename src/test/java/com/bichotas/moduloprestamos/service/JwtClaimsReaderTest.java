@@ -0,0 +1,85 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+class JwtClaimsReaderTest {
+
+    private static String token(String payload) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".firma";
+    }
+
+    @Test
+    void shouldReadRoleSubjectAndExpiration() {
+        JwtClaims claims = JwtClaimsReader.read(token("{\"sub\":\"123\",\"role\":\"admin\",\"exp\":1931000000}"));
+
+        assertEquals("admin", claims.role());
+        assertEquals("123", claims.subject());
+        assertEquals(1931000000L, claims.expiration());
+    }
+
+    @Test
+    void shouldReadClaimsWithWhitespaceAndAnyOrder() {
+        JwtClaims claims = JwtClaimsReader.read(token("{\n  \"exp\" : 1931000000 ,\n  \"role\" :  \"bibliotecario\",\n  \"sub\":\"9\"\n}"));
+
+        assertEquals("bibliotecario", claims.role());
+        assertEquals("9", claims.subject());
+        assertEquals(1931000000L, claims.expiration());
+    }
+
+    @Test
+    void shouldSkipNestedClaims() {
+        JwtClaims claims = JwtClaimsReader.read(token(
+                "{\"perfil\":{\"role\":\"estudiante\",\"grupos\":[\"a\",{\"b\":\"}\"}]},\"role\":\"admin\",\"activo\":true}"));
+
+        assertEquals("admin", claims.role());
+        assertNull(claims.subject());
+        assertNull(claims.expiration());
+    }
+
+    @Test
+    void shouldUnescapeStrings() {
+        JwtClaims claims = JwtClaimsReader.read(token("{\"role\":\"ad\\\"min\",\"sub\":\"Jos\\u00e9\"}"));
+
+        assertEquals("ad\"min", claims.role());
+        assertEquals("José", claims.subject());
+    }
+
+    @Test
+    void shouldReadPaddedPayload() {
+        String payload = Base64.getUrlEncoder().encodeToString("{\"role\":\"admin\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("admin", JwtClaimsReader.read("e30." + payload + ".firma").role());
+    }
+
+    @Test
+    void shouldReturnNullRoleWhenMissing() {
+        assertNull(JwtClaimsReader.read(token("{\"sub\":\"123\"}")).role());
+    }
+
+    @Test
+    void shouldRejectMalformedTokens() {
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read("sin-puntos"));
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read("a.%%%.c"));
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read(token("{\"role\":\"admin\"")));
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read(token("[\"role\"]")));
+    }
+
+    @Test
+    void shouldRejectTruncatedUnicodeEscape() {
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read(token("{\"sub\":\"Jos\\u00\"}")));
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read(token("{\"sub\":\"Jos\\u00zz\"}")));
+    }
+
+    @Test
+    void shouldRejectExpirationThatWouldOverflow() {
+        assertEquals(999_999_999_999_999_999L, JwtClaimsReader.read(token("{\"exp\":999999999999999999}")).expiration());
+        assertThrows(IllegalArgumentException.class, () -> JwtClaimsReader.read(token("{\"exp\":9999999999999999999}")));
+    }
+}
@@ -0,0 +1,97 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+class LocalTokenVerifierTest {
+
+    @TempDir
+    Path tempDir;
+
+    private RSAKey signingKey;
+    private LocalTokenVerifier localTokenVerifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        signingKey = new RSAKeyGenerator(2048).keyID("clave-1").generate();
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.writeString(jwks, new JWKSet(signingKey.toPublicJWK()).toString());
+
+        localTokenVerifier = new LocalTokenVerifier(new DefaultResourceLoader(), jwks.toUri().toString(), Duration.ofSeconds(30));
+        localTokenVerifier.refreshKeys();
+    }
+
+    private static String token(RSAKey key, Instant expiration, Instant notBefore) throws Exception {
+        JWTClaimsSet.Builder claims = new JWTClaimsSet.Builder()
+                .subject("123")
+                .claim("role", "admin")
+                .expirationTime(Date.from(expiration));
+        if (notBefore != null) {
+            claims.notBeforeTime(Date.from(notBefore));
+        }
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims.build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    @Test
+    void shouldAcceptValidToken() throws Exception {
+        String token = token(signingKey, Instant.now().plusSeconds(600), null);
+
+        assertEquals(LocalTokenVerifier.Verdict.VALID, localTokenVerifier.verify(token));
+    }
+
+    @Test
+    void shouldRejectExpiredToken() throws Exception {
+        String token = token(signingKey, Instant.now().minusSeconds(600), null);
+
+        assertEquals(LocalTokenVerifier.Verdict.INVALID, localTokenVerifier.verify(token));
+    }
+
+    @Test
+    void shouldRejectTokenNotYetValid() throws Exception {
+        String token = token(signingKey, Instant.now().plusSeconds(600), Instant.now().plusSeconds(300));
+
+        assertEquals(LocalTokenVerifier.Verdict.INVALID, localTokenVerifier.verify(token));
+    }
+
+    @Test
+    void shouldRejectTokenWithInvalidSignature() throws Exception {
+        RSAKey otherKey = new RSAKeyGenerator(2048).keyID("clave-1").generate();
+        String token = token(otherKey, Instant.now().plusSeconds(600), null);
+
+        assertEquals(LocalTokenVerifier.Verdict.INVALID, localTokenVerifier.verify(token));
+    }
+
+    @Test
+    void shouldReportUnknownKey() throws Exception {
+        RSAKey otherKey = new RSAKeyGenerator(2048).keyID("clave-2").generate();
+        String token = token(otherKey, Instant.now().plusSeconds(600), null);
+
+        assertEquals(LocalTokenVerifier.Verdict.UNKNOWN_KEY, localTokenVerifier.verify(token));
+    }
+
+    @Test
+    void shouldRejectMalformedToken() {
+        assertEquals(LocalTokenVerifier.Verdict.INVALID, localTokenVerifier.verify("no.es.un.token"));
+    }
+}
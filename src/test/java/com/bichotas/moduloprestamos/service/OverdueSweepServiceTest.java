@@ -0,0 +1,290 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.SweepCheckpoint;
+import com.bichotas.moduloprestamos.entity.dto.SweepProgressDTO;
+import com.bichotas.moduloprestamos.repository.PrestamoRepository;
+import com.bichotas.moduloprestamos.repository.SweepCheckpointRepository;
+
+class OverdueSweepServiceTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 10);
+    private static final LocalDate CUTOFF = LocalDate.of(2025, 3, 9);
+    private static final String RUN = "medianoche";
+    private static final Duration AT_MOST = Duration.ofMinutes(10);
+    private static final Duration AT_LEAST = Duration.ofMinutes(5);
+
+    private PrestamoRepository prestamoRepository;
+    private PrestamoService prestamoService;
+    private SweepCheckpointRepository checkpointRepository;
+    private ClusterLockService clusterLockService;
+    private final Map<String, SweepCheckpoint> stored = new ConcurrentHashMap<>();
+    private final Queue<Integer> savedChunks = new ConcurrentLinkedQueue<>();
+    private final Queue<List<String>> expiredChunks = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        prestamoRepository = mock(PrestamoRepository.class);
+        prestamoService = mock(PrestamoService.class);
+        checkpointRepository = mock(SweepCheckpointRepository.class);
+        clusterLockService = mock(ClusterLockService.class);
+        when(checkpointRepository.saveFenced(any())).thenAnswer(invocation -> {
+            SweepCheckpoint checkpoint = invocation.getArgument(0);
+            savedChunks.add(checkpoint.getLotes());
+            stored.put(checkpoint.getId(), checkpoint);
+            return true;
+        });
+        when(checkpointRepository.findById(anyString())).thenAnswer(invocation -> Optional.ofNullable(stored.get(invocation.<String>getArgument(0))));
+        when(checkpointRepository.findAllById(any())).thenAnswer(invocation -> StreamSupport
+                .stream(invocation.<Iterable<String>>getArgument(0).spliterator(), false)
+                .map(stored::get)
+                .filter(checkpoint -> checkpoint != null)
+                .toList());
+        when(clusterLockService.tryLock(eq(OverdueSweepService.LOCK_NAME), any(), any())).thenReturn(Optional.of(lease(OverdueSweepService.LOCK_NAME, 7)));
+        when(clusterLockService.extend(any())).thenReturn(true);
+        when(prestamoService.expireOverdue(anyCollection(), any())).thenAnswer(invocation -> {
+            Collection<Prestamo> chunk = invocation.getArgument(0);
+            expiredChunks.add(chunk.stream().map(Prestamo::getId).toList());
+            return List.copyOf(chunk);
+        });
+    }
+
+    private OverdueSweepService service(int partitions, boolean partitionLeases, int partitionsPerNode) {
+        return new OverdueSweepService(prestamoRepository, prestamoService, checkpointRepository, clusterLockService,
+                2, partitions, 4, partitionLeases, partitionsPerNode, AT_MOST, AT_LEAST);
+    }
+
+    private static ClusterLockService.Lease lease(String name, long token) {
+        return new ClusterLockService.Lease(name, token, Instant.now(), AT_MOST, AT_LEAST);
+    }
+
+    private static Prestamo overdue(String id, int day) {
+        return Prestamo.builder().id(id).fechaDevolucion(LocalDate.of(2025, 3, day)).build();
+    }
+
+    private void overdueLoans(int count) {
+        when(prestamoRepository.streamOverdue(CUTOFF, 2)).thenAnswer(invocation ->
+                IntStream.range(0, count).mapToObj(i -> overdue("p" + i, 1 + i % 8)));
+    }
+
+    private void storeCheckpoint(SweepCheckpoint checkpoint) {
+        stored.put(checkpoint.getId(), checkpoint);
+    }
+
+    @Test
+    void shouldExpireInChunksAndSaveCheckpointAfterEachOne() {
+        overdueLoans(5);
+
+        OverdueSweepService.SweepReport report = service(1, false, 0).run(TODAY, RUN);
+
+        assertEquals(3, expiredChunks.size());
+        assertEquals(List.of(0, 1, 2, 3, 3), List.copyOf(savedChunks));
+        verify(clusterLockService, times(3)).extend(any());
+        verify(clusterLockService).unlock(any());
+        assertEquals(1, report.partitions());
+        assertEquals(3, report.lotes());
+        assertEquals(5, report.vencidos());
+        SweepCheckpoint checkpoint = stored.get(OverdueSweepService.SWEEP_ID + "-0");
+        assertEquals(SweepCheckpoint.COMPLETADO, checkpoint.getEstado());
+        assertEquals(7L, checkpoint.getToken());
+        assertEquals(CUTOFF, checkpoint.getCorte());
+        assertNotNull(checkpoint.getFinalizado());
+    }
+
+    @Test
+    void shouldExpireEachPartitionOnlyWithItsOwnLoans() {
+        overdueLoans(40);
+
+        OverdueSweepService.SweepReport report = service(4, false, 0).run(TODAY, RUN);
+
+        assertEquals(4, report.partitions());
+        assertEquals(40, report.vencidos());
+        assertTrue(report.skew() >= 1);
+        List<String> expired = expiredChunks.stream().flatMap(List::stream).toList();
+        assertEquals(40, expired.size());
+        assertEquals(40, Set.copyOf(expired).size());
+        for (List<String> chunk : expiredChunks) {
+            assertEquals(1, chunk.stream().map(id -> OverdueSweepService.partitionOf(id, 4)).distinct().count());
+        }
+        IntStream.range(0, 4).forEach(partition -> assertEquals(SweepCheckpoint.COMPLETADO,
+                stored.get(OverdueSweepService.SWEEP_ID + "-" + partition).getEstado()));
+        verify(clusterLockService, times(1)).tryLock(eq(OverdueSweepService.LOCK_NAME), any(), any());
+    }
+
+    @Test
+    void shouldResumeInterruptedPartitionOfTheSameDay() {
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-0").particion(0).particiones(1).fecha(TODAY).ejecucion(RUN).corte(CUTOFF)
+                .estado(SweepCheckpoint.EN_CURSO).lotes(4).vencidos(7).iniciado(LocalDateTime.now().minusMinutes(5)).build());
+        overdueLoans(1);
+        OverdueSweepService overdueSweepService = service(1, false, 0);
+
+        assertEquals(Optional.of(RUN), overdueSweepService.unfinishedRun(TODAY));
+        OverdueSweepService.SweepReport report = overdueSweepService.run(TODAY, RUN);
+
+        SweepCheckpoint checkpoint = stored.get(OverdueSweepService.SWEEP_ID + "-0");
+        assertEquals(SweepCheckpoint.COMPLETADO, checkpoint.getEstado());
+        assertEquals(5, checkpoint.getLotes());
+        assertEquals(8, checkpoint.getVencidos());
+        assertEquals(1, checkpoint.getReanudaciones());
+        assertEquals(8, report.vencidos());
+        assertEquals(Optional.empty(), overdueSweepService.unfinishedRun(TODAY));
+    }
+
+    @Test
+    void shouldNotRunAgainWhenTheSameRunCompleted() {
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-0").particion(0).particiones(1).fecha(TODAY).ejecucion(RUN).corte(CUTOFF)
+                .estado(SweepCheckpoint.COMPLETADO).build());
+
+        assertNull(service(1, false, 0).run(TODAY, RUN));
+
+        verify(clusterLockService, never()).tryLock(any(), any(), any());
+        verify(prestamoRepository, never()).streamOverdue(any(), anyInt());
+        verify(checkpointRepository, never()).saveFenced(any());
+    }
+
+    @Test
+    void shouldScanAgainInALaterRunOfTheSameDay() {
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-0").particion(0).particiones(1).fecha(TODAY).ejecucion(RUN).corte(CUTOFF)
+                .estado(SweepCheckpoint.COMPLETADO).lotes(9).vencidos(18).build());
+        overdueLoans(3);
+
+        OverdueSweepService.SweepReport report = service(1, false, 0).run(TODAY, "respaldo");
+
+        assertEquals("respaldo", report.ejecucion());
+        assertEquals(3, report.vencidos());
+        SweepCheckpoint checkpoint = stored.get(OverdueSweepService.SWEEP_ID + "-0");
+        assertEquals("respaldo", checkpoint.getEjecucion());
+        assertEquals(SweepCheckpoint.COMPLETADO, checkpoint.getEstado());
+        assertEquals(2, checkpoint.getLotes());
+    }
+
+    @Test
+    void shouldStartOverWhenCheckpointIsFromAnEarlierDayOrPartitioning() {
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-0").particion(0).particiones(1).fecha(TODAY.minusDays(1))
+                .estado(SweepCheckpoint.EN_CURSO).lotes(4).vencidos(7).build());
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-1").particion(1).particiones(4).fecha(TODAY).ejecucion(RUN)
+                .estado(SweepCheckpoint.COMPLETADO).lotes(9).vencidos(9).build());
+        overdueLoans(4);
+
+        OverdueSweepService.SweepReport report = service(2, false, 0).run(TODAY, RUN);
+
+        assertEquals(2, report.partitions());
+        assertEquals(4, report.vencidos());
+        SweepCheckpoint checkpoint = stored.get(OverdueSweepService.SWEEP_ID + "-0");
+        assertEquals(TODAY, checkpoint.getFecha());
+        assertEquals(2, checkpoint.getParticiones());
+        assertEquals(0, checkpoint.getReanudaciones());
+    }
+
+    @Test
+    void shouldStopPartitionTakenOverByANewerLease() {
+        overdueLoans(5);
+        doReturn(true, false).when(checkpointRepository).saveFenced(any());
+
+        assertNull(service(1, false, 0).run(TODAY, RUN));
+
+        assertEquals(1, expiredChunks.size());
+        verify(clusterLockService, never()).extend(any());
+        verify(clusterLockService).unlock(any());
+    }
+
+    @Test
+    void shouldOnlySweepThePartitionsClaimedByThisInstance() {
+        when(clusterLockService.tryLock(startsWith(OverdueSweepService.LOCK_NAME + "-"), any(), any())).thenAnswer(invocation -> {
+            String name = invocation.getArgument(0);
+            return name.endsWith("-1") || name.endsWith("-3") ? Optional.of(lease(name, 1)) : Optional.empty();
+        });
+        overdueLoans(40);
+
+        OverdueSweepService.SweepReport report = service(4, true, 2).run(TODAY, RUN);
+
+        assertEquals(2, report.partitions());
+        Set<Integer> partitions = expiredChunks.stream().flatMap(List::stream)
+                .map(id -> OverdueSweepService.partitionOf(id, 4))
+                .collect(Collectors.toSet());
+        assertEquals(Set.of(1, 3), partitions);
+        assertNull(stored.get(OverdueSweepService.SWEEP_ID + "-0"));
+        verify(clusterLockService, times(2)).unlock(any());
+        verify(prestamoRepository, times(1)).streamOverdue(any(), anyInt());
+    }
+
+    @Test
+    void shouldKeepCheckpointInProgressAndReleaseLockWhenAChunkFails() {
+        overdueLoans(5);
+        when(prestamoService.expireOverdue(anyCollection(), any())).thenThrow(new IllegalStateException("sin conexión"));
+        OverdueSweepService overdueSweepService = service(1, false, 0);
+
+        assertThrows(IllegalStateException.class, () -> overdueSweepService.run(TODAY, RUN));
+
+        assertEquals(SweepCheckpoint.EN_CURSO, stored.get(OverdueSweepService.SWEEP_ID + "-0").getEstado());
+        assertEquals(Optional.of(RUN), overdueSweepService.unfinishedRun(TODAY));
+        verify(clusterLockService).unlock(any());
+    }
+
+    @Test
+    void shouldReportProgressAndSkewOfTheLastRun() {
+        LocalDateTime iniciado = LocalDateTime.of(2025, 3, 10, 10, 0);
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-0").particion(0).particiones(2).fecha(TODAY).ejecucion(RUN)
+                .estado(SweepCheckpoint.EN_CURSO).lotes(3).vencidos(30)
+                .iniciado(iniciado).actualizado(iniciado.plusSeconds(42)).build());
+        storeCheckpoint(SweepCheckpoint.builder()
+                .id(OverdueSweepService.SWEEP_ID + "-1").particion(1).particiones(2).fecha(TODAY).ejecucion(RUN)
+                .estado(SweepCheckpoint.COMPLETADO).lotes(1).vencidos(10)
+                .iniciado(iniciado).actualizado(iniciado.plusSeconds(14)).finalizado(iniciado.plusSeconds(14)).build());
+
+        SweepProgressDTO progress = service(2, false, 0).progress();
+
+        assertEquals(SweepCheckpoint.EN_CURSO, progress.getEstado());
+        assertEquals(RUN, progress.getEjecucion());
+        assertEquals(4, progress.getLotes());
+        assertEquals(40, progress.getVencidos());
+        assertEquals(42_000, progress.getDuracionMs());
+        assertEquals(2, progress.getParticiones().size());
+        assertEquals(1.5, progress.getSesgoVencidos(), 1e-9);
+        assertEquals(1.5, progress.getSesgoDuracion(), 1e-9);
+        assertFalse(progress.isEnEjecucion());
+    }
+
+    @Test
+    void shouldAssignEveryIdToAPartitionInRange() {
+        IntStream.range(0, 1000).mapToObj(i -> Integer.toHexString(i * 7919) + "ab")
+                .forEach(id -> assertTrue(OverdueSweepService.partitionOf(id, 6) >= 0 && OverdueSweepService.partitionOf(id, 6) < 6));
+    }
+
+    @Test
+    void shouldRejectNonPositiveChunkSizeOrPartitions() {
+        assertThrows(IllegalArgumentException.class, () -> new OverdueSweepService(prestamoRepository, prestamoService,
+                checkpointRepository, clusterLockService, 0, 1, 1, false, 0, AT_MOST, AT_LEAST));
+        assertThrows(IllegalArgumentException.class, () -> new OverdueSweepService(prestamoRepository, prestamoService,
+                checkpointRepository, clusterLockService, 1, 0, 1, false, 0, AT_MOST, AT_LEAST));
+    }
+}
@@ -0,0 +1,71 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PrestamoCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private PrestamoCache prestamoCache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        prestamoCache = new PrestamoCache(meterRegistry, 100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void shouldLoadOnceAndReportHits() {
+        AtomicInteger loads = new AtomicInteger();
+
+        prestamoCache.get("p1", id -> load(id, loads));
+        prestamoCache.get("p1", id -> load(id, loads));
+
+        assertEquals(1, loads.get());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "prestamoById").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "prestamoById").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void shouldReloadAfterInvalidation() {
+        AtomicInteger loads = new AtomicInteger();
+        prestamoCache.get("p1", id -> load(id, loads));
+        prestamoCache.get("p2", id -> load(id, loads));
+
+        prestamoCache.invalidate("p1");
+        prestamoCache.get("p1", id -> load(id, loads));
+        prestamoCache.invalidateAll(List.of("p1", "p2"));
+        prestamoCache.get("p1", id -> load(id, loads));
+        prestamoCache.get("p2", id -> load(id, loads));
+
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    void shouldNotCacheMissingPrestamo() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(prestamoCache.get("p1", id -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        prestamoCache.get("p1", id -> load(id, loads));
+
+        assertEquals(2, loads.get());
+    }
+
+    private static Prestamo load(String id, AtomicInteger loads) {
+        loads.incrementAndGet();
+        return Prestamo.builder().id(id).estado("Prestado").build();
+    }
+}
@@ -0,0 +1,125 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.mongodb.MongoSocketWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PrestamoInvalidationBusTest {
+
+    private MongoCollection<Document> collection;
+    private PrestamoCache prestamoCache;
+    private PrestamoInvalidationBus bus;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("prestamo_invalidation")).thenReturn(collection);
+        prestamoCache = new PrestamoCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        bus = new PrestamoInvalidationBus(mongoTemplate, prestamoCache, new SimpleMeterRegistry(),
+                "prestamo_invalidation", 1024 * 1024, 1000);
+    }
+
+    @Test
+    void shouldPublishInvalidatedIdsWithNodeId() {
+        bus.publish(Set.of("p1"));
+
+        ArgumentCaptor<Document> message = ArgumentCaptor.forClass(Document.class);
+        verify(collection).insertOne(message.capture());
+        assertEquals(bus.nodeId(), message.getValue().getString("nodeId"));
+        assertEquals(List.of("p1"), message.getValue().getList("ids", String.class));
+    }
+
+    @Test
+    void shouldNotFailTheWriteWhenPublishingFails() {
+        when(collection.insertOne(any())).thenThrow(new MongoSocketWriteException("sin conexión", new ServerAddress(), new RuntimeException()));
+
+        assertDoesNotThrow(() -> bus.publish(List.of("p1")));
+    }
+
+    @Test
+    void shouldEvictLoansInvalidatedByOtherNodes() {
+        AtomicInteger loads = new AtomicInteger();
+        prestamoCache.get("p1", id -> load(id, loads));
+
+        bus.onMessage(new Document("_id", new ObjectId()).append("nodeId", "otro-nodo").append("ids", List.of("p1")));
+        prestamoCache.get("p1", id -> load(id, loads));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void shouldIgnoreItsOwnMessages() {
+        AtomicInteger loads = new AtomicInteger();
+        prestamoCache.get("p1", id -> load(id, loads));
+
+        bus.onMessage(new Document("_id", new ObjectId()).append("nodeId", bus.nodeId()).append("ids", List.of("p1")));
+        prestamoCache.get("p1", id -> load(id, loads));
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldReadMessagesAfterTheLastSeenInInsertionOrder() {
+        Document seen = message("otro-nodo", "p0");
+        bus.onMessage(seen);
+        Document older = message("otro-nodo", "p0");
+        Document smallerId = new Document("_id", new ObjectId(new Date(0))).append("nodeId", "otro-nodo").append("ids", List.of("p1"));
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.tryNext()).thenReturn(older, seen, smallerId, null);
+        AtomicInteger loads = new AtomicInteger();
+        prestamoCache.get("p2", id -> load(id, loads));
+
+        assertSame(smallerId, bus.skipSeen(cursor));
+
+        prestamoCache.get("p2", id -> load(id, loads));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldEvictEveryLoanWhenTheLastSeenMessageIsGone() {
+        bus.onMessage(message("otro-nodo", "p0"));
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.tryNext()).thenReturn(message("otro-nodo", "p1"), (Document) null);
+        AtomicInteger loads = new AtomicInteger();
+        prestamoCache.get("p2", id -> load(id, loads));
+
+        assertNull(bus.skipSeen(cursor));
+
+        prestamoCache.get("p2", id -> load(id, loads));
+        assertEquals(2, loads.get());
+    }
+
+    private static Document message(String nodeId, String id) {
+        return new Document("_id", new ObjectId()).append("nodeId", nodeId).append("ids", List.of(id));
+    }
+
+    private static Prestamo load(String id, AtomicInteger loads) {
+        loads.incrementAndGet();
+        return Prestamo.builder().id(id).build();
+    }
+}
@@ -3,27 +3,62 @@ package com.bichotas.moduloprestamos.service;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.bson.BsonDocument;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 
 import com.bichotas.moduloprestamos.entity.Prestamo;
+import com.bichotas.moduloprestamos.entity.dto.BulkResultDTO;
+import com.bichotas.moduloprestamos.entity.dto.DevolucionResultDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoPageDTO;
+import com.bichotas.moduloprestamos.entity.dto.PrestamoResumenDTO;
 import com.bichotas.moduloprestamos.exception.PrestamosException;
 import com.bichotas.moduloprestamos.repository.PrestamoRepository;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
 
 class PrestamoServiceTest {
 
     @Mock
     private PrestamoRepository prestamoRepository;
 
+    @Mock
+    private NotificationService notificationService;
+
+    @Spy
+    private PrestamoCache prestamoCache = new PrestamoCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
     @InjectMocks
     private PrestamoService prestamoService;
 
@@ -51,123 +86,71 @@ class PrestamoServiceTest {
     }
 
     @Test
-    void shouldCreatePrestamoLoanDateAfterReturnDate() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setIdEstudiante("123");
-        prestamo.setIdLibro("456");
-        prestamo.setEstado("Prestado");
-        prestamo.setFechaDevolucion(LocalDate.now().minusDays(1));
+    void shouldInsertNewPrestamoEvenWhenClientSendsIdAndVersion() {
+        Prestamo prestamo = Prestamo.builder().id("64759fa2edbdee1a2c7b4e1f").version(3L)
+                .idEstudiante("123").idLibro("456").estado("Prestado").build();
+        when(prestamoRepository.save(any(Prestamo.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        when(prestamoRepository.findAll()).thenReturn(List.of());
+        prestamoService.createPrestamo(prestamo);
 
-        assertThrows(PrestamosException.PrestamosExceptionTimeError.class, () -> {
-            prestamoService.createPrestamo(prestamo);
-        });
+        ArgumentCaptor<Prestamo> saved = ArgumentCaptor.forClass(Prestamo.class);
+        verify(prestamoRepository).save(saved.capture());
+        assertNull(saved.getValue().getId());
+        assertNull(saved.getValue().getVersion());
     }
 
     @Test
-    void createPrestamo_InvalidState() {
+    void shouldCreatePrestamoLoanDateAfterReturnDate() {
         Prestamo prestamo = new Prestamo();
         prestamo.setIdEstudiante("123");
         prestamo.setIdLibro("456");
-        prestamo.setEstado("InvalidState");
+        prestamo.setEstado("Prestado");
+        prestamo.setFechaDevolucion(LocalDate.now().minusDays(1));
 
         when(prestamoRepository.findAll()).thenReturn(List.of());
 
-        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> {
+        assertThrows(PrestamosException.PrestamosExceptionTimeError.class, () -> {
             prestamoService.createPrestamo(prestamo);
         });
     }
 
     @Test
-    void shouldGetPrestamosWithEstadoIsPrestado() {
-        Prestamo prestamo1 = new Prestamo();
-        prestamo1.setIdEstudiante("123");
-        prestamo1.setIdLibro("456");
-        prestamo1.setEstado("Prestado");
-
-        Prestamo prestamo2 = new Prestamo();
-        prestamo2.setIdEstudiante("1233");
-        prestamo2.setIdLibro("4564");
-        prestamo2.setEstado("Prestado");
-
-        when(prestamoRepository.findByEstado("Prestado")).thenReturn(List.of(prestamo1, prestamo2));
+    void createPrestamo_EstudianteHasActivePrestamo() {
+        Prestamo prestamo = Prestamo.builder().idEstudiante("123").idLibro("456").estado("Prestado").build();
+        when(prestamoRepository.save(prestamo)).thenThrow(new DuplicateKeyException(
+                "E11000 duplicate key error collection: prestamos.prestamo index: idEstudiante_prestamoActivo dup key: { idEstudiante: \"123\" }"));
 
-        List<Prestamo> prestamosWithStatusPrestado = prestamoService.getPrestamos("Prestado");
-
-        assertEquals(2, prestamosWithStatusPrestado.size());
-        assertEquals("Prestado", prestamosWithStatusPrestado.get(0).getEstado());
-        assertEquals("Prestado", prestamosWithStatusPrestado.get(1).getEstado());
+        assertThrows(PrestamosException.PrestamosExceptionEstudianteHasPrestamo.class, () -> prestamoService.createPrestamo(prestamo));
     }
 
     @Test
-    void shouldGetPrestamosWithEstadoIsVencido() {
-        Prestamo prestamo1 = new Prestamo();
-        prestamo1.setIdEstudiante("123");
-        prestamo1.setIdLibro("456");
-        prestamo1.setEstado("Vencido");
-
-        Prestamo prestamo2 = new Prestamo();
-        prestamo2.setIdEstudiante("1233");
-        prestamo2.setIdLibro("4564");
-        prestamo2.setEstado("Vencido");
-
-        when(prestamoRepository.findByEstado("Vencido")).thenReturn(List.of(prestamo1, prestamo2));
-
-        List<Prestamo> prestamosWithStatusVencido = prestamoService.getPrestamos("Vencido");
+    void createPrestamo_BookHasActivePrestamo() {
+        Prestamo prestamo = Prestamo.builder().idEstudiante("123").idLibro("456").estado("Prestado").build();
+        when(prestamoRepository.save(prestamo)).thenThrow(new DuplicateKeyException(
+                "E11000 duplicate key error collection: prestamos.prestamo index: idLibro_prestamoActivo dup key: { idLibro: \"456\" }"));
 
-        assertEquals(2, prestamosWithStatusVencido.size());
-        assertEquals("Vencido", prestamosWithStatusVencido.get(0).getEstado());
-        assertEquals("Vencido", prestamosWithStatusVencido.get(1).getEstado());
+        assertThrows(PrestamosException.PrestamosExceptionBookIsAvailable.class, () -> prestamoService.createPrestamo(prestamo));
+        verify(prestamoRepository, never()).findByIdEstudiante(any());
     }
 
-    /*
-    @Test
-    void shouldGetPrestamosWithEstadoIsDevuelto() {
-        Prestamo prestamo1 = new Prestamo();
-        prestamo1.setIdEstudiante("123");
-        prestamo1.setIdLibro("456");
-        prestamo1.setEstado("Devuelto");
-
-        Prestamo prestamo2 = new Prestamo();
-        prestamo2.setIdEstudiante("1233");
-        prestamo2.setIdLibro("4564");
-        prestamo2.setEstado("Devuelto");
-
-        when(prestamoRepository.findByEstado("Devuelto")).thenReturn(List.of(prestamo1, prestamo2));
-
-        List<Prestamo> prestamosWithStatusDevuelto = prestamoService.getPrestamos("Devuelto");
-
-        assertEquals(2, prestamosWithStatusDevuelto.size());
-        assertEquals("Devuelto", prestamosWithStatusDevuelto.get(0).getEstado());
-        assertEquals("Devuelto", prestamosWithStatusDevuelto.get(1).getEstado());
-    }*/
-
     @Test
-    void shouldGetAllPrestamosWhenEstadoIsNull() {
-        Prestamo prestamo1 = new Prestamo();
-        prestamo1.setIdEstudiante("123");
-        prestamo1.setIdLibro("456");
-        prestamo1.setEstado("Prestado");
-
-        Prestamo prestamo2 = new Prestamo();
-        prestamo2.setIdEstudiante("1233");
-        prestamo2.setIdLibro("4564");
-        prestamo2.setEstado("Devuelto");
-
-        when(prestamoRepository.findAll()).thenReturn(List.of(prestamo1, prestamo2));
+    void createPrestamo_InvalidState() {
+        Prestamo prestamo = new Prestamo();
+        prestamo.setIdEstudiante("123");
+        prestamo.setIdLibro("456");
+        prestamo.setEstado("InvalidState");
 
-        List<Prestamo> prestamos = prestamoService.getPrestamos(null);
+        when(prestamoRepository.findAll()).thenReturn(List.of());
 
-        assertEquals(2, prestamos.size());
-        assertEquals("Prestado", prestamos.get(0).getEstado());
-        assertEquals("Devuelto", prestamos.get(1).getEstado());
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> {
+            prestamoService.createPrestamo(prestamo);
+        });
     }
 
     @Test
     void shouldThrowExceptionForInvalidEstado() {
         assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> {
-            prestamoService.getPrestamos("InvalidEstado");
+            prestamoService.getPrestamos("InvalidEstado", null);
         });
     }
 
@@ -180,27 +163,6 @@ class PrestamoServiceTest {
         });
     }
 
-    @Test
-    public void shouldGetPrestamos() {
-        Prestamo prestamo1 = new Prestamo();
-        prestamo1.setIdEstudiante("123");
-        prestamo1.setIdLibro("456");
-        prestamo1.setEstado("Prestado");
-
-        Prestamo prestamo2 = new Prestamo();
-        prestamo2.setIdEstudiante("1233");
-        prestamo2.setIdLibro("4564");
-        prestamo2.setEstado("Prestado");
-
-        when(prestamoRepository.findAll()).thenReturn(List.of(prestamo1, prestamo2));
-
-        List<Prestamo> prestamos = prestamoService.getPrestamos(null);
-
-        assertEquals(2, prestamos.size());
-        assertEquals("Prestado", prestamos.get(0).getEstado());
-        assertEquals("Prestado", prestamos.get(1).getEstado());
-    }
-
     @Test
     void shouldGetPrestamoByIdWhenExists() {
         Prestamo prestamo = new Prestamo();
@@ -250,21 +212,107 @@ class PrestamoServiceTest {
         prestamo2.setIdLibro("isbn123");
         prestamo2.setEstado("Devuelto");
 
-        when(prestamoRepository.findAll()).thenReturn(List.of(prestamo1, prestamo2));
+        when(prestamoRepository.findProjectedByIdLibro(eq("isbn123"), any(Pageable.class), any())).thenReturn(List.of(prestamo1, prestamo2));
 
-        List<Prestamo> result = prestamoService.getPrestamosByIsbn("isbn123");
+        List<PrestamoResumenDTO> result = prestamoService.getPrestamosByIsbn("isbn123", null, null, null);
 
         assertEquals(2, result.size());
         assertEquals("isbn123", result.get(0).getIdLibro());
         assertEquals("isbn123", result.get(1).getIdLibro());
+        verify(prestamoRepository).findProjectedByIdLibro("isbn123", Pageable.unpaged(Sort.by(Sort.Direction.DESC, "fechaPrestamo")),
+                Set.copyOf(Prestamo.SUMMARY_FIELDS));
+        verify(prestamoRepository, never()).findAll();
+    }
+
+    @Test
+    void shouldGetPrestamosByIsbnPage() {
+        Prestamo prestamo = new Prestamo();
+        prestamo.setIdLibro("isbn123");
+        when(prestamoRepository.findProjectedByIdLibro(eq("isbn123"), any(Pageable.class), any())).thenReturn(List.of(prestamo));
+
+        List<PrestamoResumenDTO> result = prestamoService.getPrestamosByIsbn("isbn123", 2, 10, null);
+
+        assertEquals(1, result.size());
+        verify(prestamoRepository).findProjectedByIdLibro("isbn123",
+                PageRequest.of(2, 10, Sort.by(Sort.Direction.DESC, "fechaPrestamo")), Set.copyOf(Prestamo.SUMMARY_FIELDS));
+    }
+
+    @Test
+    void shouldRejectInvalidIsbnPage() {
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosByIsbn("isbn123", -1, 10, null));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosByIsbn("isbn123", 0, 0, null));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosByIsbn("isbn123", 0, 101, null));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosByIsbn("isbn123", 0, 10, "estado,clave"));
+        verifyNoInteractions(prestamoRepository);
+    }
+
+    @Test
+    void shouldReturnFirstPageWithNextCursor() {
+        Prestamo prestamo1 = Prestamo.builder().id("64759fa2edbdee1a2c7b4e1f").estado("Prestado").build();
+        Prestamo prestamo2 = Prestamo.builder().id("64759fa2edbdee1a2c7b4e20").estado("Prestado").build();
+        Prestamo prestamo3 = Prestamo.builder().id("64759fa2edbdee1a2c7b4e21").estado("Prestado").build();
+        when(prestamoRepository.findPageAfter(eq("Prestado"), isNull(), eq(3), any())).thenReturn(List.of(prestamo1, prestamo2, prestamo3));
+
+        PrestamoPageDTO page = prestamoService.getPrestamosPage("Prestado", 2, null, null);
+
+        assertEquals(List.of(prestamo1.getId(), prestamo2.getId()), page.getPrestamos().stream().map(PrestamoResumenDTO::getId).toList());
+        assertNotNull(page.getNextCursor());
+
+        when(prestamoRepository.findPageAfter(eq("Prestado"), eq("64759fa2edbdee1a2c7b4e20"), eq(3), any())).thenReturn(List.of(prestamo3));
+
+        PrestamoPageDTO nextPage = prestamoService.getPrestamosPage("Prestado", 2, page.getNextCursor(), null);
+
+        assertEquals(List.of(prestamo3.getId()), nextPage.getPrestamos().stream().map(PrestamoResumenDTO::getId).toList());
+        assertNull(nextPage.getNextCursor());
+    }
+
+    @Test
+    void shouldRejectInvalidPageRequests() {
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosPage(null, 0, null, null));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosPage(null, 101, null, null));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosPage(null, 10, "%%", null));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosPage(null, 10, "bm8tZXMtdW4taWQ", null));
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> prestamoService.getPrestamosPage("Perdido", 10, null, null));
+        verifyNoInteractions(prestamoRepository);
+    }
+
+    @Test
+    void shouldReadListsWithSummaryProjectionByDefault() {
+        Prestamo prestamo = Prestamo.builder().id("p1").idEstudiante("123").estado("Prestado").build();
+        when(prestamoRepository.findProjected(eq("Prestado"), any())).thenReturn(List.of(prestamo));
+        when(prestamoRepository.findProjectedByIdEstudiante(eq("123"), any())).thenReturn(List.of(prestamo));
+
+        assertEquals("p1", prestamoService.getPrestamos("Prestado", null).get(0).getId());
+        assertEquals("123", prestamoService.getPrestamosByIdEstudiante("123", " estado , fechaDevolucion").get(0).getIdEstudiante());
+
+        verify(prestamoRepository).findProjected("Prestado", Set.copyOf(Prestamo.SUMMARY_FIELDS));
+        verify(prestamoRepository).findProjectedByIdEstudiante("123", Set.of("estado", "fechaDevolucion"));
+        verify(prestamoRepository, never()).findByEstado(any());
+    }
+
+    @Test
+    void shouldRejectUnknownFields() {
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamos(null, "estado,SUMMARY_FIELDS"));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.getPrestamosByIdEstudiante("123", "contraseña"));
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> prestamoService.getPrestamos("Perdido", null));
+        verifyNoInteractions(prestamoRepository);
+    }
+
+    @Test
+    void shouldValidateExportFiltersBeforeOpeningCursor() {
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class,
+                () -> prestamoService.streamPrestamos("Perdido", null, null));
+        assertThrows(PrestamosException.PrestamosExceptionTimeError.class,
+                () -> prestamoService.streamPrestamos(null, LocalDate.of(2025, 1, 2), LocalDate.of(2025, 1, 1)));
+        verifyNoInteractions(prestamoRepository);
     }
 
     @Test
     void shouldThrowExceptionWhenIsbnNotFound() {
-        when(prestamoRepository.findAll()).thenReturn(List.of());
+        when(prestamoRepository.findProjectedByIdLibro(eq("isbn123"), any(Pageable.class), any())).thenReturn(List.of());
 
         assertThrows(PrestamosException.PrestamosExceptionBookIsAvailable.class, () -> {
-            prestamoService.getPrestamosByIsbn("isbn123");
+            prestamoService.getPrestamosByIsbn("isbn123", null, null, null);
         });
     }
 
@@ -280,9 +328,9 @@ class PrestamoServiceTest {
         prestamo2.setIdLibro("789");
         prestamo2.setEstado("Devuelto");
 
-        when(prestamoRepository.findByIdEstudiante("123")).thenReturn(List.of(prestamo1, prestamo2));
+        when(prestamoRepository.findProjectedByIdEstudiante(eq("123"), any())).thenReturn(List.of(prestamo1, prestamo2));
 
-        List<Prestamo> result = prestamoService.getPrestamosByIdEstudiante("123");
+        List<PrestamoResumenDTO> result = prestamoService.getPrestamosByIdEstudiante("123", null);
 
         assertEquals(2, result.size());
         assertEquals("123", result.get(0).getIdEstudiante());
@@ -294,7 +342,7 @@ class PrestamoServiceTest {
         when(prestamoRepository.findAll()).thenReturn(List.of());
 
         assertThrows(PrestamosException.PrestamosExceptionEstudianteHasNotPrestamo.class, () -> {
-            prestamoService.getPrestamosByIdEstudiante("123");
+            prestamoService.getPrestamosByIdEstudiante("123", null);
         });
     }
 
@@ -308,7 +356,7 @@ class PrestamoServiceTest {
         when(prestamoRepository.findAll()).thenReturn(List.of(prestamo));
 
         assertThrows(PrestamosException.PrestamosExceptionEstudianteHasNotPrestamo.class, () -> {
-            prestamoService.getPrestamosByIdEstudiante("123");
+            prestamoService.getPrestamosByIdEstudiante("123", null);
         });
     }
 
@@ -320,12 +368,13 @@ class PrestamoServiceTest {
         prestamo.setIdLibro("456");
         prestamo.setEstado("Prestado");
 
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
+        when(prestamoRepository.deleteIfActive("123")).thenReturn(prestamo);
 
         Prestamo result = prestamoService.deletePrestamoById("123");
 
-        assertNotNull(result);
-        verify(prestamoRepository, times(1)).deleteById(prestamo.getId());
+        assertSame(prestamo, result);
+        verify(prestamoRepository, never()).findById(any());
+        verify(prestamoRepository, never()).deleteById(any());
     }
 
     @Test
@@ -358,112 +407,93 @@ class PrestamoServiceTest {
 
     @Test
     void shouldUpdateObservacionesSuccessfully() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
-
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
+        when(prestamoRepository.updateFields(eq("123"), isNull(), anyMap())).thenReturn(true);
 
-        prestamoService.updatePrestamo("123", Map.of("observaciones", "New observation"));
+        prestamoService.updatePrestamo("123", Map.of("observaciones", "New observation"), null);
 
-        assertEquals("New observation", prestamo.getObservaciones());
-        verify(prestamoRepository, times(1)).save(prestamo);
+        verify(prestamoRepository, times(1)).updateFields("123", null, Map.of("observaciones", "New observation"));
+        verify(prestamoRepository, never()).findById(any());
+        verify(prestamoRepository, never()).save(any());
     }
 
     @Test
     void shouldUpdateEstadoSuccessfully() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
+        when(prestamoRepository.updateFields(eq("123"), isNull(), anyMap())).thenReturn(true);
 
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
-
-        prestamoService.updatePrestamo("123", Map.of("estado", "Devuelto"));
+        prestamoService.updatePrestamo("123", Map.of("estado", "Devuelto"), null);
 
-        assertEquals("Devuelto", prestamo.getEstado());
-        verify(prestamoRepository, times(1)).save(prestamo);
+        verify(prestamoRepository, times(1)).updateFields("123", null, Map.of("estado", "Devuelto"));
     }
 
     @Test
     void shouldUpdateFechaDevolucionSuccessfullyWithString() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
-
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
+        when(prestamoRepository.updateFields(eq("123"), isNull(), anyMap())).thenReturn(true);
 
-        prestamoService.updatePrestamo("123", Map.of("fecha_devolucion", "2023-10-10T10:10:10"));
+        prestamoService.updatePrestamo("123", Map.of("fecha_devolucion", "2023-10-10T10:10:10"), null);
 
-        assertEquals(LocalDate.of(2023, 10, 10), prestamo.getFechaDevolucion());
-        verify(prestamoRepository, times(1)).save(prestamo);
+        verify(prestamoRepository, times(1)).updateFields("123", null, Map.of("fechaDevolucion", LocalDate.of(2023, 10, 10)));
     }
 
     @Test
     void shouldUpdateFechaDevolucionSuccessfullyWithLocalDateTime() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
-
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
+        when(prestamoRepository.updateFields(eq("123"), isNull(), anyMap())).thenReturn(true);
 
-        prestamoService.updatePrestamo("123", Map.of("fecha_devolucion", LocalDateTime.of(2023, 10, 10, 10, 10, 10)));
+        prestamoService.updatePrestamo("123", Map.of("fecha_devolucion", LocalDateTime.of(2023, 10, 10, 10, 10, 10)), null);
 
-        assertEquals(LocalDate.of(2023, 10, 10), prestamo.getFechaDevolucion());
-        verify(prestamoRepository, times(1)).save(prestamo);
+        verify(prestamoRepository, times(1)).updateFields("123", null, Map.of("fechaDevolucion", LocalDate.of(2023, 10, 10)));
     }
 
     @Test
     void shouldThrowExceptionForInvalidFechaDevolucionFormat() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
-
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
-
         assertThrows(IllegalArgumentException.class, () -> {
-            prestamoService.updatePrestamo("123", Map.of("fecha_devolucion", 12345));
+            prestamoService.updatePrestamo("123", Map.of("fecha_devolucion", 12345), null);
         });
+        verifyNoInteractions(prestamoRepository);
     }
 
     @Test
     void shouldUpdateHistorialEstadoSuccessfully() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
-
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
+        when(prestamoRepository.updateFields(eq("123"), isNull(), anyMap())).thenReturn(true);
 
-        prestamoService.updatePrestamo("123", Map.of("historial_estado", "New history"));
+        prestamoService.updatePrestamo("123", Map.of("historial_estado", "New history"), null);
 
-        assertEquals("New history", prestamo.getHistorialEstado());
-        verify(prestamoRepository, times(1)).save(prestamo);
+        verify(prestamoRepository, times(1)).updateFields("123", null, Map.of("historialEstado", "New history"));
     }
 
     @Test
     void shouldThrowExceptionForInvalidAttribute() {
-        Prestamo prestamo = new Prestamo();
-        prestamo.setEstado("Prestado");
-
-        when(prestamoRepository.findById(any(String.class))).thenReturn(java.util.Optional.of(prestamo));
-
         assertThrows(IllegalArgumentException.class, () -> {
-            prestamoService.updatePrestamo("123", Map.of("invalid_attribute", "value"));
+            prestamoService.updatePrestamo("123", Map.of("invalid_attribute", "value"), null);
         });
+        verifyNoInteractions(prestamoRepository);
     }
 
     @Test
-    void shouldGellAllPrestamosWithEstadoIsDevuelto(){
-        Prestamo prestamo1 = new Prestamo();
-        prestamo1.setIdEstudiante("123");
-        prestamo1.setIdLibro("456");
-        prestamo1.setEstado("Devuelto");
+    void shouldUpdateWithExpectedVersion() {
+        when(prestamoRepository.updateFields("123", 4L, Map.of("observaciones", "New observation"))).thenReturn(true);
 
-        Prestamo prestamo2 = new Prestamo();
-        prestamo2.setIdEstudiante("1233");
-        prestamo2.setIdLibro("4564");
-        prestamo2.setEstado("Devuelto");
+        prestamoService.updatePrestamo("123", Map.of("observaciones", "New observation"), 4L);
 
-        when(prestamoRepository.findByEstado("Devuelto")).thenReturn(List.of(prestamo1, prestamo2));
+        verify(prestamoRepository, never()).existsById(any());
+    }
 
-        List<Prestamo> prestamosWithStatusDevuelto = prestamoService.getPrestamos("Devuelto");
+    @Test
+    void shouldThrowVersionConflictWhenVersionChanged() {
+        when(prestamoRepository.updateFields("123", 4L, Map.of("observaciones", "New observation"))).thenReturn(false);
+        when(prestamoRepository.existsById("123")).thenReturn(true);
 
-        assertEquals(2, prestamosWithStatusDevuelto.size());
-        assertEquals("Devuelto", prestamosWithStatusDevuelto.get(0).getEstado());
-        assertEquals("Devuelto", prestamosWithStatusDevuelto.get(1).getEstado());
+        assertThrows(PrestamosException.PrestamosExceptionVersionConflict.class,
+                () -> prestamoService.updatePrestamo("123", Map.of("observaciones", "New observation"), 4L));
+        assertEquals(1.0, meterRegistry.get("prestamos.version.conflicts").tag("operacion", "update").counter().count());
+    }
+
+    @Test
+    void shouldThrowNotFoundWhenUpdatingMissingPrestamo() {
+        when(prestamoRepository.updateFields("123", null, Map.of("observaciones", "New observation"))).thenReturn(false);
+
+        assertThrows(PrestamosException.PrestamosExceptionPrestamoIdNotFound.class,
+                () -> prestamoService.updatePrestamo("123", Map.of("observaciones", "New observation"), null));
+        verify(prestamoRepository, never()).existsById(any());
     }
 
     @Test
@@ -482,9 +512,11 @@ class PrestamoServiceTest {
 
         Prestamo prestamo = new Prestamo();
         prestamo.setId(prestamoId);
-        prestamo.setEstado("Prestado");
+        prestamo.setEstado("Devuelto");
+        prestamo.setHistorialEstado(estado);
+        prestamo.setFechaDevolucion(LocalDate.now());
 
-        when(prestamoRepository.findById(prestamoId)).thenReturn(Optional.of(prestamo));
+        when(prestamoRepository.markReturned(prestamoId, estado, LocalDate.now())).thenReturn(prestamo);
 
         Prestamo returnedPrestamo = prestamoService.devolverPrestamo(prestamoId, estado);
 
@@ -493,7 +525,8 @@ class PrestamoServiceTest {
         assertEquals(estado, returnedPrestamo.getHistorialEstado());
         assertEquals(LocalDate.now(), returnedPrestamo.getFechaDevolucion());
 
-        verify(prestamoRepository).findById(prestamoId);
+        verify(prestamoRepository, never()).findById(any());
+        verify(prestamoRepository, never()).save(any());
     }
 
     @Test
@@ -510,6 +543,19 @@ class PrestamoServiceTest {
         verify(prestamoRepository).findById(prestamoId);
     }
 
+    @Test
+    void testDevolverPrestamo_AlreadyReturned() {
+        Prestamo prestamo = new Prestamo();
+        prestamo.setId("123");
+        prestamo.setEstado("Devuelto");
+
+        when(prestamoRepository.findById("123")).thenReturn(Optional.of(prestamo));
+
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> {
+            prestamoService.devolverPrestamo("123", "En buen estado");
+        });
+    }
+
     @Test
     void testDevolverPrestamo_DifferentEstadoValues() {
         String prestamoId = "456";
@@ -520,11 +566,14 @@ class PrestamoServiceTest {
         };
 
         for (String estado : estadoVariants) {
-            Prestamo prestamo = new Prestamo();
-            prestamo.setId(prestamoId);
-            prestamo.setEstado("Prestado");
-
-            when(prestamoRepository.findById(prestamoId)).thenReturn(Optional.of(prestamo));
+            when(prestamoRepository.markReturned(eq(prestamoId), eq(estado), any(LocalDate.class))).thenAnswer(invocation -> {
+                Prestamo prestamo = new Prestamo();
+                prestamo.setId(prestamoId);
+                prestamo.setEstado("Devuelto");
+                prestamo.setHistorialEstado(invocation.getArgument(1));
+                prestamo.setFechaDevolucion(invocation.getArgument(2));
+                return prestamo;
+            });
 
             Prestamo returnedPrestamo = prestamoService.devolverPrestamo(prestamoId, estado);
 
@@ -536,5 +585,204 @@ class PrestamoServiceTest {
         }
     }
 
-}
+    private static Prestamo bulkPrestamo(String idEstudiante, String idLibro) {
+        return Prestamo.builder().idEstudiante(idEstudiante).idLibro(idLibro).estado("Prestado").creadoBy("bibliotecario").build();
+    }
+
+    @Test
+    void shouldCreatePrestamosInOneUnorderedInsert() {
+        List<Prestamo> batch = List.of(bulkPrestamo("e1", "l1"), bulkPrestamo("e2", "l2"));
+
+        List<BulkResultDTO> results = prestamoService.createPrestamos(batch);
 
+        assertEquals(2, results.size());
+        assertTrue(results.stream().allMatch(result -> BulkResultDTO.CREADO.equals(result.getStatus()) && result.getId() != null));
+        assertEquals(0L, batch.get(0).getVersion());
+        verify(prestamoRepository).findEstudiantesWithActivePrestamo(Set.of("e1", "e2"));
+        verify(prestamoRepository).findLibrosWithActivePrestamo(Set.of("l1", "l2"));
+        verify(prestamoRepository).insertUnordered(batch);
+        verify(prestamoRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldRejectInvalidAndConflictingPrestamosOfTheBatch() {
+        Prestamo invalid = bulkPrestamo("e1", "l1");
+        invalid.setEstado("Perdido");
+        List<Prestamo> batch = List.of(invalid, bulkPrestamo("e2", "l2"), bulkPrestamo("e3", "l3"), bulkPrestamo("e3", "l4"));
+        when(prestamoRepository.findEstudiantesWithActivePrestamo(anyCollection())).thenReturn(Set.of());
+        when(prestamoRepository.findLibrosWithActivePrestamo(anyCollection())).thenReturn(Set.of("l2"));
+
+        List<BulkResultDTO> results = prestamoService.createPrestamos(batch);
+
+        assertEquals("El estado solo puede ser Prestado, Vencido o Devuelto", results.get(0).getError());
+        assertEquals("El libro ya tiene un préstamo activo", results.get(1).getError());
+        assertEquals(BulkResultDTO.CREADO, results.get(2).getStatus());
+        assertEquals("El estudiante ya tiene un préstamo activo", results.get(3).getError());
+        verify(prestamoRepository).insertUnordered(List.of(batch.get(2)));
+    }
+
+    @Test
+    void shouldReportPrestamosRejectedByTheBulkInsert() {
+        List<Prestamo> batch = List.of(bulkPrestamo("e1", "l1"), bulkPrestamo("e2", "l2"));
+        BulkWriteError duplicate = new BulkWriteError(11000,
+                "E11000 duplicate key error collection: prestamos.prestamo index: idEstudiante_prestamoActivo dup key: { idEstudiante: \"e2\" }",
+                new BsonDocument(), 1);
+        doThrow(new BulkOperationException("Bulk write operation error", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()), List.of(duplicate), null, new ServerAddress(), Set.of())))
+                .when(prestamoRepository).insertUnordered(anyList());
+
+        List<BulkResultDTO> results = prestamoService.createPrestamos(batch);
+
+        assertEquals(BulkResultDTO.CREADO, results.get(0).getStatus());
+        assertEquals(BulkResultDTO.RECHAZADO, results.get(1).getStatus());
+        assertEquals("El estudiante ya tiene un préstamo activo", results.get(1).getError());
+    }
+
+    @Test
+    void shouldRejectEmptyOrOversizedBatch() {
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.createPrestamos(List.of()));
+        List<Prestamo> oversized = Collections.nCopies(5001, bulkPrestamo("e1", "l1"));
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.createPrestamos(oversized));
+        verifyNoInteractions(prestamoRepository);
+    }
+
+    @Test
+    void shouldReturnBatchWithOneUpdateAndNotifyAsync() {
+        Prestamo porId = Prestamo.builder().id("p1").idEstudiante("e1").idLibro("l1").estado("Prestado").build();
+        Prestamo porLibro = Prestamo.builder().id("p2").idEstudiante("e2").idLibro("l2").estado("Vencido").build();
+        when(prestamoRepository.findReturnable(Set.of("p1"), Set.of("l2"))).thenReturn(List.of(porId, porLibro));
+        when(prestamoRepository.markReturned(anyCollection(), eq("Buen estado"), eq(LocalDate.now()))).thenReturn(2L);
+
+        List<DevolucionResultDTO> results = prestamoService.devolverPrestamos(List.of("p1"), List.of("l2"), "Buen estado");
+
+        assertEquals(2, results.size());
+        assertEquals("p1", results.get(0).getPrestamoId());
+        assertEquals("p2", results.get(1).getPrestamoId());
+        assertTrue(results.stream().allMatch(result -> DevolucionResultDTO.DEVUELTO.equals(result.getStatus())));
+        verify(prestamoRepository, never()).findIdsReturned(anyCollection(), any(), any());
+        verify(notificationService).notifyDevoluciones(List.of(porId, porLibro));
+    }
+
+    @Test
+    void shouldReportEachRejectedItemOfTheBatch() {
+        Prestamo cambiado = Prestamo.builder().id("p1").idLibro("l1").estado("Prestado").build();
+        Prestamo devuelto = Prestamo.builder().id("p2").idLibro("l2").estado("Prestado").build();
+        when(prestamoRepository.findReturnable(anyCollection(), anyCollection())).thenReturn(List.of(cambiado, devuelto));
+        when(prestamoRepository.markReturned(anyCollection(), any(), any())).thenReturn(1L);
+        when(prestamoRepository.findIdsReturned(anyCollection(), eq("Buen estado"), eq(LocalDate.now()))).thenReturn(Set.of("p2"));
+        when(prestamoRepository.findAllById(anyIterable())).thenReturn(List.of(Prestamo.builder().id("p3").estado("Devuelto").build()));
+
+        List<DevolucionResultDTO> results = prestamoService.devolverPrestamos(List.of("p1", "p2", "p3", "p4"), List.of("l9"), "Buen estado");
+
+        assertEquals("El préstamo cambió durante la devolución", results.get(0).getError());
+        assertEquals(DevolucionResultDTO.DEVUELTO, results.get(1).getStatus());
+        assertEquals("El préstamo ya ha sido devuelto", results.get(2).getError());
+        assertEquals("El préstamo con el id p4 no existe", results.get(3).getError());
+        assertEquals("l9", results.get(4).getIdLibro());
+        assertEquals(DevolucionResultDTO.RECHAZADO, results.get(4).getStatus());
+        verify(notificationService).notifyDevoluciones(List.of(devuelto));
+    }
+
+    @Test
+    void shouldRejectEmptyDevolucionBatch() {
+        assertThrows(IllegalArgumentException.class, () -> prestamoService.devolverPrestamos(null, List.of(), "Buen estado"));
+        verifyNoInteractions(prestamoRepository, notificationService);
+    }
+
+    @Test
+    void shouldServeRepeatedGetPrestamoByIdFromCache() {
+        Prestamo prestamo = Prestamo.builder().id("p1").estado("Prestado").build();
+        when(prestamoRepository.findById("p1")).thenReturn(Optional.of(prestamo));
+
+        assertSame(prestamo, prestamoService.getPrestamoById("p1"));
+        assertSame(prestamo, prestamoService.getPrestamoById("p1"));
+
+        verify(prestamoRepository, times(1)).findById("p1");
+    }
+
+    @Test
+    void shouldInvalidateCachedPrestamoOnEveryWrite() {
+        Prestamo prestamo = Prestamo.builder().id("p1").estado("Prestado").version(1L).build();
+        when(prestamoRepository.findById("p1")).thenReturn(Optional.of(prestamo));
+        when(prestamoRepository.updateFields(eq("p1"), any(), anyMap())).thenReturn(true);
+        when(prestamoRepository.markReturned(eq("p1"), any(), any(LocalDate.class))).thenReturn(prestamo);
+        when(prestamoRepository.deleteIfActive("p1")).thenReturn(prestamo);
+
+        prestamoService.getPrestamoById("p1");
+        prestamoService.updatePrestamo("p1", Map.of("observaciones", "Renovado"), null);
+        prestamoService.getPrestamoById("p1");
+        prestamoService.devolverPrestamo("p1", "Buen estado");
+        prestamoService.getPrestamoById("p1");
+        prestamoService.deletePrestamoById("p1");
+        prestamoService.getPrestamoById("p1");
+
+        verify(prestamoRepository, times(4)).findById("p1");
+        verify(prestamoCache, times(3)).invalidate("p1");
+    }
+
+    @Test
+    void shouldNotPublishInvalidationsForWritesThatMatchedNothing() {
+        Prestamo devuelto = Prestamo.builder().id("p1").estado("Devuelto").version(1L).build();
+        when(prestamoRepository.findById("p1")).thenReturn(Optional.of(devuelto));
+        when(prestamoRepository.existsById("p1")).thenReturn(true);
+        when(prestamoRepository.findReturnable(anyCollection(), anyCollection())).thenReturn(List.of(devuelto));
+
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> prestamoService.deletePrestamoById("p1"));
+        assertThrows(PrestamosException.PrestamosExceptionStateError.class, () -> prestamoService.devolverPrestamo("p1", "Buen estado"));
+        assertThrows(PrestamosException.PrestamosExceptionVersionConflict.class,
+                () -> prestamoService.updatePrestamo("p1", Map.of("observaciones", "Renovado"), 1L));
+        prestamoService.devolverPrestamos(List.of("p1"), null, "Buen estado");
+        assertEquals(List.of(), prestamoService.expireOverdue(List.of(devuelto), LocalDate.of(2025, 3, 9)));
+
+        verify(prestamoCache, never()).invalidate(any());
+        verify(prestamoCache, never()).invalidateAll(any());
+    }
+
+    @Test
+    void shouldNotCacheMissingPrestamo() {
+        when(prestamoRepository.findById("p1")).thenReturn(Optional.empty());
+
+        assertThrows(PrestamosException.PrestamosExceptionPrestamoIdNotFound.class, () -> prestamoService.getPrestamoById("p1"));
+        assertThrows(PrestamosException.PrestamosExceptionPrestamoIdNotFound.class, () -> prestamoService.getPrestamoById("p1"));
+
+        verify(prestamoRepository, times(2)).findById("p1");
+    }
+
+    @Test
+    void shouldExpireOverduePrestamosWithOneConditionalUpdate() {
+        LocalDate cutoff = PrestamoService.overdueCutoff(LocalDate.of(2025, 3, 10));
+        Prestamo p1 = Prestamo.builder().id("p1").idEstudiante("e1").fechaDevolucion(LocalDate.of(2025, 3, 1)).build();
+        Prestamo p2 = Prestamo.builder().id("p2").idEstudiante("e2").fechaDevolucion(LocalDate.of(2025, 3, 8)).build();
+        when(prestamoRepository.markOverdue(Set.of("p1", "p2"), LocalDate.of(2025, 3, 9))).thenReturn(2L);
+
+        List<Prestamo> expired = prestamoService.expireOverdue(List.of(p1, p2), cutoff);
+
+        assertEquals(List.of(p1, p2), expired);
+        assertEquals("Vencido", p1.getEstado());
+        verify(prestamoRepository, never()).findIdsWithEstado(anyCollection(), any());
+        verify(prestamoRepository, never()).save(any());
+        verify(prestamoCache).invalidateAll(Set.of("p1", "p2"));
+        verify(notificationService).notifyVencimientos(List.of(p1, p2));
+    }
+
+    @Test
+    void shouldOnlyReportPrestamosThatActuallyExpired() {
+        Prestamo p1 = Prestamo.builder().id("p1").fechaDevolucion(LocalDate.of(2025, 3, 1)).build();
+        Prestamo devueltoEntreTanto = Prestamo.builder().id("p2").fechaDevolucion(LocalDate.of(2025, 3, 1)).build();
+        when(prestamoRepository.markOverdue(anyCollection(), any())).thenReturn(1L);
+        when(prestamoRepository.findIdsWithEstado(anyCollection(), eq("Vencido"))).thenReturn(Set.of("p1"));
+
+        List<Prestamo> expired = prestamoService.expireOverdue(List.of(p1, devueltoEntreTanto), LocalDate.of(2025, 3, 9));
+
+        assertEquals(List.of(p1), expired);
+        verify(notificationService).notifyVencimientos(List.of(p1));
+    }
+
+    @Test
+    void shouldNotUpdateWhenNothingIsOverdue() {
+        assertTrue(prestamoService.expireOverdue(List.of(), LocalDate.now()).isEmpty());
+
+        verify(prestamoRepository, never()).markOverdue(anyCollection(), any());
+        verifyNoInteractions(notificationService);
+    }
+}
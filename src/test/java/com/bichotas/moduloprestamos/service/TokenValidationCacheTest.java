@@ -0,0 +1,155 @@
+package com.bichotas.moduloprestamos.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TokenValidationCacheTest {
+
+    private TokenValidationCache tokenValidationCache;
+
+    @BeforeEach
+    void setUp() {
+        tokenValidationCache = new TokenValidationCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(15), Duration.ofSeconds(30));
+    }
+
+    private static String token(String payload) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".firma";
+    }
+
+    @Test
+    void shouldCacheValidToken() {
+        String token = token("{\"role\":\"admin\",\"exp\":" + Instant.now().plusSeconds(600).getEpochSecond() + "}");
+        AtomicInteger calls = new AtomicInteger();
+
+        assertTrue(tokenValidationCache.validate(token, t -> calls.incrementAndGet() > 0));
+        assertTrue(tokenValidationCache.validate(token, t -> calls.incrementAndGet() > 0));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void shouldCacheInvalidToken() {
+        String token = token("{\"role\":\"admin\"}");
+        AtomicInteger calls = new AtomicInteger();
+
+        assertFalse(tokenValidationCache.validate(token, t -> calls.incrementAndGet() < 0));
+        assertFalse(tokenValidationCache.validate(token, t -> calls.incrementAndGet() < 0));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void shouldNotCacheExpiredToken() {
+        String token = token("{\"role\":\"admin\",\"exp\":" + Instant.now().minusSeconds(60).getEpochSecond() + "}");
+        AtomicInteger calls = new AtomicInteger();
+
+        tokenValidationCache.validate(token, t -> calls.incrementAndGet() > 0);
+        tokenValidationCache.validate(token, t -> calls.incrementAndGet() > 0);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void shouldNotCacheValidationErrors() {
+        String token = token("{\"role\":\"admin\"}");
+
+        assertThrows(IllegalStateException.class, () -> tokenValidationCache.validate(token, t -> {
+            throw new IllegalStateException("Gateway no disponible");
+        }));
+
+        assertTrue(tokenValidationCache.validate(token, t -> true));
+    }
+
+    @Test
+    void shouldKeepDifferentTokensApart() {
+        String adminToken = token("{\"role\":\"admin\"}");
+        String studentToken = token("{\"role\":\"estudiante\"}");
+
+        assertTrue(tokenValidationCache.validate(adminToken, t -> true));
+        assertFalse(tokenValidationCache.validate(studentToken, t -> false));
+        assertTrue(tokenValidationCache.validate(adminToken, t -> false));
+    }
+
+    @Test
+    void shouldStillValidateTokenWithUnreadableClaims() {
+        String token = token("{\"role\":\"admin\",\"sub\":\"Jos\\u00\"}");
+
+        assertTrue(tokenValidationCache.validate(token, t -> true));
+    }
+
+    @Test
+    void shouldCoalesceConcurrentValidationsOfSameToken() throws Exception {
+        String token = token("{\"role\":\"admin\"}");
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Queue<Thread> callers = new ConcurrentLinkedQueue<>();
+        AtomicReference<Thread> loader = new AtomicReference<>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    callers.add(Thread.currentThread());
+                    return tokenValidationCache.validate(token, t -> {
+                        calls.incrementAndGet();
+                        loader.set(Thread.currentThread());
+                        loading.countDown();
+                        try {
+                            return release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    });
+                }));
+            }
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            awaitParked(callers, loader.get(), 8);
+            release.countDown();
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until every caller other than the one loading the value is blocked waiting for it.
+     */
+    private static void awaitParked(Queue<Thread> callers, Thread loader, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (callers.size() < expected || !callers.stream()
+                .filter(caller -> caller != loader)
+                .allMatch(caller -> caller.getState() == Thread.State.WAITING || caller.getState() == Thread.State.BLOCKED
+                        || caller.getState() == Thread.State.TIMED_WAITING)) {
+            assertTrue(System.nanoTime() < deadline, "Callers did not block on the validation in progress");
+            Thread.sleep(1);
+        }
+    }
+}